@@ -1,15 +1,47 @@
 package at.tugraz.ist.qs2024.actorsystem;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * Abstract CommunicationChannel class implementing the Tick method,
  * which is common to all concrete implementations of communication channels.
+ * <p>
+ * Messages in delivery are kept in a hashed timer wheel: every message is put into the slot of
+ * the tick it is due in, so a tick only visits the messages of one slot instead of decrementing
+ * the remaining ticks of all messages. Messages due more than <c>WHEEL_SIZE</c> ticks ahead share
+ * their slot with earlier messages and are skipped until their tick has come. Messages due in the
+ * same tick are delivered in the order they have been sent.
  */
 public abstract class CommunicationChannel implements ICommunicationChannel {
 
-    private List<MessageInDelivery> messagesInDelivery = new ArrayList<>();
+    /**
+     * Number of slots of the timer wheel, a power of two
+     */
+    private static final int WHEEL_SIZE = 16;
+
+    /**
+     * Messages in delivery by the tick they are due in (modulo <c>WHEEL_SIZE</c>),
+     * allocated when the first message with a delay is sent
+     */
+    private List<List<MessageInDelivery>> wheel = null;
+
+    /**
+     * Messages sent after the last call to {@link CommunicationChannel#tick()},
+     * which are put into the wheel with the next tick
+     */
+    private final List<MessageInDelivery> sentSinceTick = new ArrayList<>();
+
+    /**
+     * Number of calls to {@link CommunicationChannel#tick()}
+     */
+    private long ticks = 0;
+
+    /**
+     * Number of messages in delivery
+     */
+    private int size = 0;
 
     /**
      * Adds the given message to the list.
@@ -17,25 +49,101 @@ public abstract class CommunicationChannel implements ICommunicationChannel {
      * @param messageInDelivery The object to add to the list.
      */
     protected void addMessageInDelivery(MessageInDelivery messageInDelivery) {
-        this.messagesInDelivery.add(messageInDelivery);
+        this.sentSinceTick.add(messageInDelivery);
+        size++;
+    }
+
+    /**
+     * @return true if no messages are in delivery, false otherwise
+     */
+    boolean isEmpty() {
+        return size == 0;
     }
 
     @Override
     public List<Message> tick() {
         List<Message> messagesDelivered = new ArrayList<>();
-        List<MessageInDelivery> newMessagesInDelivery = new ArrayList<>();
+        tick(messagesDelivered);
+        return messagesDelivered;
+    }
+
+    /**
+     * Variant of {@link CommunicationChannel#tick()} adding the delivered messages
+     * to the given collection, e.g. the message box of an actor, instead of a new list.
+     *
+     * @param messagesDelivered collection to add the messages having reached their destinations to
+     */
+    void tick(Collection<? super Message> messagesDelivered) {
+        ticks++;
 
-        for (MessageInDelivery messageInDelivery : messagesInDelivery) {
-            if (messageInDelivery.tick()) {
-                // message arrived at destination
+        List<MessageInDelivery> slot = wheel == null ? null : wheel.get((int) ticks & (WHEEL_SIZE - 1));
+        if (slot != null && !slot.isEmpty()) {
+            int kept = 0;
+            for (int i = 0; i < slot.size(); i++) {
+                MessageInDelivery messageInDelivery = slot.get(i);
+                if (messageInDelivery.dueTick == ticks) {
+                    // message arrived at destination
+                    messagesDelivered.add(messageInDelivery.getMessage());
+                } else {
+                    // message is due in a later round of the wheel
+                    slot.set(kept++, messageInDelivery);
+                }
+            }
+            size -= slot.size() - kept;
+            while (slot.size() > kept) {
+                slot.remove(slot.size() - 1);
+            }
+        }
+
+        // messages sent since the last tick are younger than all messages in the wheel
+        scheduleSentMessages(messagesDelivered);
+    }
+
+    /**
+     * Applies the last call to {@link CommunicationChannel#tick()} to the messages sent since then,
+     * as if they had been sent before it. This is used by the parallel mode of
+     * {@link SimulatedActorSystem}, where messages sent by actors ticked earlier within the same
+     * tick are only sent after the receiving actor has been ticked.
+     *
+     * @param messagesDelivered collection to add the messages having reached their destinations to
+     * @return the number of delivered messages
+     */
+    int tickLateMessages(Collection<? super Message> messagesDelivered) {
+        return scheduleSentMessages(messagesDelivered);
+    }
+
+    /**
+     * Internal helper method putting the messages sent since the last tick into the wheel as if they
+     * had been sent right before it, messages without delay are delivered immediately.
+     *
+     * @param messagesDelivered collection to add the messages without delay to
+     * @return the number of delivered messages
+     */
+    private int scheduleSentMessages(Collection<? super Message> messagesDelivered) {
+        int delivered = 0;
+        for (int i = 0; i < sentSinceTick.size(); i++) {
+            MessageInDelivery messageInDelivery = sentSinceTick.get(i);
+            int delay = messageInDelivery.getDelay();
+            if (delay <= 0) {
                 messagesDelivered.add(messageInDelivery.getMessage());
+                delivered++;
+                size--;
             } else {
-                // add message with decremented remainingTicks again
-                newMessagesInDelivery.add(messageInDelivery);
+                messageInDelivery.dueTick = ticks + delay;
+                slotOf(messageInDelivery.dueTick).add(messageInDelivery);
             }
         }
+        sentSinceTick.clear();
+        return delivered;
+    }
 
-        this.messagesInDelivery = newMessagesInDelivery;
-        return messagesDelivered;
+    private List<MessageInDelivery> slotOf(long tick) {
+        if (wheel == null) {
+            wheel = new ArrayList<>(WHEEL_SIZE);
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel.add(new ArrayList<>());
+            }
+        }
+        return wheel.get((int) tick & (WHEEL_SIZE - 1));
     }
 }
@@ -1,9 +1,15 @@
 package at.tugraz.ist.qs2024.actorsystem;
 
 public class MessageInDelivery {
-    private int remainingTicks;
+    private final int delay;
     private final Message message;
 
+    /**
+     * Tick of the channel, in which the message arrives at its destination,
+     * set by the channel when the message is put into its timer wheel.
+     */
+    long dueTick = -1;
+
     /**
      * Constructs a MessageInDelivery object.
      *
@@ -11,7 +17,7 @@ public class MessageInDelivery {
      * @param message  The message.
      */
     public MessageInDelivery(int duration, Message message) {
-        this.remainingTicks = duration;
+        this.delay = duration;
         this.message = message;
     }
 
@@ -20,17 +26,9 @@ public class MessageInDelivery {
     }
 
     /**
-     * Check if message already arrived at its destination.
-     * If not, reduce number of remaining ticks.
-     *
-     * @return True if message arrived at its destination, false if not.
+     * @return the number of ticks the message needs to be delivered in addition to the first tick
      */
-    boolean tick() {
-        if (this.remainingTicks == 0) {
-            return true;
-        } else {
-            this.remainingTicks--;
-            return false;
-        }
+    int getDelay() {
+        return delay;
     }
 }
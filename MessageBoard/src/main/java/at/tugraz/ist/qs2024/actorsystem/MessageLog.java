@@ -0,0 +1,72 @@
+package at.tugraz.ist.qs2024.actorsystem;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Read-only list of the messages logged for an actor according to a {@link MessageLogPolicy},
+ * the oldest message first.
+ * <p>
+ * The messages are kept in an array, which grows up to the capacity of the policy. Once it
+ * is full, it is used as a ring buffer: every logged message replaces the oldest one.
+ */
+final class MessageLog extends AbstractList<Message> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int interval;
+
+    private final int capacity;
+
+    private Message[] messages = new Message[0];
+
+    /**
+     * Index of the oldest message in <c>messages</c>
+     */
+    private int first = 0;
+
+    private int size = 0;
+
+    /**
+     * Number of messages passed to {@link MessageLog#record(Message)}
+     */
+    private long recorded = 0;
+
+    MessageLog(int interval, int capacity) {
+        this.interval = interval;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Logs a message sent to the actor, if it is selected by the policy.
+     *
+     * @param message the sent message
+     */
+    void record(Message message) {
+        if (capacity == 0 || recorded++ % interval != 0)
+            return;
+        if (size < messages.length) {
+            messages[(first + size) % messages.length] = message;
+            size++;
+        } else if (messages.length < capacity) {
+            // the array is full, but has not reached the capacity yet, so the oldest message is at index 0
+            messages = Arrays.copyOf(messages, (int) Math.min(capacity, Math.max(INITIAL_CAPACITY, messages.length * 2L)));
+            messages[size++] = message;
+        } else {
+            messages[first] = message;
+            first = (first + 1) % messages.length;
+        }
+    }
+
+    @Override
+    public Message get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return messages[(first + index) % messages.length];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
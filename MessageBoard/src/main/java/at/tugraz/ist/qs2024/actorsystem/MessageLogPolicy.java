@@ -0,0 +1,99 @@
+package at.tugraz.ist.qs2024.actorsystem;
+
+/**
+ * Policy deciding which of the messages sent to an actor are kept in its message log
+ * (see {@link ISimulatedActor#getMessageLog()}).
+ * <p>
+ * By default all messages are logged, which is convenient for debugging and testing, but makes
+ * the log of long-running actors grow with the total traffic. The other policies keep the log
+ * bounded: it can be turned off, limited to the most recent messages or restricted to every n-th
+ * message. A policy can be set per actor (see {@link SimulatedActor#setMessageLogPolicy}) or for
+ * all actors spawned by a system (see {@link SimulatedActorSystem#setMessageLogPolicy}).
+ */
+public final class MessageLogPolicy {
+
+    private static final MessageLogPolicy UNBOUNDED = new MessageLogPolicy(1, Integer.MAX_VALUE);
+
+    private static final MessageLogPolicy OFF = new MessageLogPolicy(1, 0);
+
+    /**
+     * Only every <c>interval</c>-th message is logged, starting with the first one
+     */
+    private final int interval;
+
+    /**
+     * Maximum number of logged messages, older messages are dropped first
+     */
+    private final int capacity;
+
+    private MessageLogPolicy(int interval, int capacity) {
+        this.interval = interval;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the policy logging all messages, which is the default
+     */
+    public static MessageLogPolicy unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * @return the policy logging no messages at all
+     */
+    public static MessageLogPolicy off() {
+        return OFF;
+    }
+
+    /**
+     * @param capacity maximum number of logged messages
+     * @return the policy logging the last <c>capacity</c> messages
+     */
+    public static MessageLogPolicy bounded(int capacity) {
+        return sampled(1, capacity);
+    }
+
+    /**
+     * @param interval distance between logged messages
+     * @return the policy logging every <c>interval</c>-th message
+     */
+    public static MessageLogPolicy sampled(int interval) {
+        return sampled(interval, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param interval distance between logged messages
+     * @param capacity maximum number of logged messages
+     * @return the policy logging the last <c>capacity</c> messages out of every <c>interval</c>-th message
+     */
+    public static MessageLogPolicy sampled(int interval, int capacity) {
+        if (interval < 1)
+            throw new IllegalArgumentException("interval must be positive");
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        return new MessageLogPolicy(interval, capacity);
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return a new empty log following this policy
+     */
+    MessageLog newLog() {
+        return new MessageLog(interval, capacity);
+    }
+
+    @Override
+    public String toString() {
+        if (capacity == 0)
+            return "MessageLogPolicy[off]";
+        return "MessageLogPolicy[interval=" + interval
+                + ", capacity=" + (capacity == Integer.MAX_VALUE ? "unbounded" : String.valueOf(capacity)) + "]";
+    }
+}
@@ -3,13 +3,25 @@ package at.tugraz.ist.qs2024.actorsystem;
 import at.tugraz.ist.qs2024.messageboard.UnknownClientException;
 import at.tugraz.ist.qs2024.messageboard.UnknownMessageException;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Queue;
 
 public abstract class SimulatedActor implements ISimulatedActor {
 
+    /**
+     * Whether the class of an actor overrides {@link SimulatedActor#tick()}
+     */
+    private static final ClassValue<Boolean> overridesTick = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("tick").getDeclaringClass() != SimulatedActor.class;
+            } catch (NoSuchMethodException e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
     /**
      * Channel, which simulates the communication channel built-up when
      * messages are sent to an actors. A more accurate approximation
@@ -36,16 +48,30 @@ public abstract class SimulatedActor implements ISimulatedActor {
 
     /**
      * All messages, that have already been sent via <c>channel</c>,
-     * but have not been processed yet.
+     * but have not been processed yet. The array-based ring buffer does not allocate
+     * per message, messages are added by the channel directly.
      */
-    private final Queue<Message> messageBox = new LinkedList<>();
+    private final ArrayDeque<Message> messageBox = new ArrayDeque<>();
 
     /**
      * All messages sent to this actor, this includes messages in transit,
      * already processed messages and messages in the <c>messageBox</c>.
-     * It is used to alleviate debugging and testing.
+     * It is used to alleviate debugging and testing. Which messages are kept
+     * is decided by <c>messageLogPolicy</c>.
+     */
+    private MessageLog messageLog = MessageLogPolicy.unbounded().newLog();
+
+    /**
+     * Policy set for this actor, null if the policy of the system is used
+     */
+    private MessageLogPolicy messageLogPolicy = null;
+
+    /**
+     * True if the actor has neither been busy nor found a message to process in
+     * the current tick, so it can still start processing a message delivered late
+     * (see {@link SimulatedActor#deliverLateMessages()}).
      */
-    private final List<Message> messageLog = new ArrayList<>();
+    private boolean idle = false;
 
     /**
      * Time since the system was started.
@@ -57,6 +83,29 @@ public abstract class SimulatedActor implements ISimulatedActor {
      */
     int timeSinceSystemStart = -1;
 
+    /**
+     * The system this actor has been spawned in, null if it has not been spawned yet or has been stopped
+     */
+    SimulatedActorSystem scheduler = null;
+
+    /**
+     * Position of this actor in the order actors are ticked, assigned by <c>scheduler</c>
+     */
+    long schedulingOrder = -1;
+
+    /**
+     * True if <c>scheduler</c> skips this actor, because it has nothing to do
+     * (see {@link SimulatedActor#isQuiescent()}).
+     */
+    boolean asleep = false;
+
+    /**
+     * Number of ticks, which had passed this actor when it fell asleep. While the
+     * actor is asleep, <c>timeSinceSystemStart</c> is not incremented, the skipped
+     * ticks are added when the actor is ticked again.
+     */
+    int asleepSince = 0;
+
     @Override
     public long getId() {
         return this.id;
@@ -67,32 +116,86 @@ public abstract class SimulatedActor implements ISimulatedActor {
         this.id = id;
     }
 
+    /**
+     * @return a read-only list of the logged messages sent to this actor, the oldest message first
+     */
     @Override
     public List<Message> getMessageLog() {
         return this.messageLog;
     }
 
+    /**
+     * @return the policy set for this actor, null if the policy of the system is used
+     */
+    public MessageLogPolicy getMessageLogPolicy() {
+        return this.messageLogPolicy;
+    }
+
+    /**
+     * Sets the policy for logging the messages sent to this actor, overriding the policy
+     * of the system. The messages logged so far are kept as far as the new policy allows.
+     *
+     * @param messageLogPolicy the policy, null to use the policy of the system
+     */
+    public void setMessageLogPolicy(MessageLogPolicy messageLogPolicy) {
+        this.messageLogPolicy = messageLogPolicy;
+        if (messageLogPolicy != null)
+            replaceMessageLog(messageLogPolicy);
+    }
+
+    /**
+     * Applies the policy of the system this actor is spawned in, unless a policy has been
+     * set for this actor.
+     *
+     * @param systemPolicy the policy of the system
+     */
+    void applySystemMessageLogPolicy(MessageLogPolicy systemPolicy) {
+        if (messageLogPolicy == null)
+            replaceMessageLog(systemPolicy);
+    }
+
+    private void replaceMessageLog(MessageLogPolicy policy) {
+        MessageLog newLog = policy.newLog();
+        for (Message message : messageLog) {
+            newLog.record(message);
+        }
+        messageLog = newLog;
+    }
+
     @Override
     public int getTimeSinceSystemStart() {
+        if (asleep)
+            return this.timeSinceSystemStart + scheduler.ticksPassed(this) - asleepSince;
         return this.timeSinceSystemStart;
     }
 
     @Override
     public void setTimeSinceSystemStart(int timeSinceSystemStart) {
         this.timeSinceSystemStart = timeSinceSystemStart;
+        if (asleep)
+            asleepSince = scheduler.ticksPassed(this);
     }
 
     @Override
     public void tell(Message message) {
+        // while the system ticks actors in parallel, messages are sent after the tick
+        if (SimulatedActorSystem.defer(() -> deliver(message)))
+            return;
+        deliver(message);
+    }
+
+    private void deliver(Message message) {
         channel.send(message);
-        messageLog.add(message);
+        messageLog.record(message);
+        if (scheduler != null)
+            scheduler.wake(this);
     }
 
     @Override
     public void tick() throws UnknownClientException, UnknownMessageException {
         timeSinceSystemStart++;
-        List<Message> newlyDelivered = channel.tick();
-        messageBox.addAll(newlyDelivered);
+        idle = false;
+        channel.tick(messageBox);
 
         if (busyFor > 0) {
             busyFor--;
@@ -110,6 +213,8 @@ public abstract class SimulatedActor implements ISimulatedActor {
         } else if (!messageBox.isEmpty()) {
             activeMessage = messageBox.remove();
             busyFor = activeMessage.getDuration();
+        } else {
+            idle = true;
         }
         // might throw an exception, but all the other code should still be executed,
         // but not in a "finally" block,
@@ -119,6 +224,58 @@ public abstract class SimulatedActor implements ISimulatedActor {
         }
     }
 
+    /**
+     * Delivers the messages sent to this actor by actors ticked before it within the
+     * current tick, which the parallel mode of {@link SimulatedActorSystem} only sends
+     * after this actor has been ticked. The messages are delivered as if they had been
+     * sent before this actor was ticked, so the result is the same as if all actors
+     * were ticked one after the other.
+     */
+    void deliverLateMessages() {
+        if (channel.tickLateMessages(messageBox) == 0)
+            return;
+        if (idle) {
+            idle = false;
+            activeMessage = messageBox.remove();
+            busyFor = activeMessage.getDuration();
+        }
+    }
+
+    /**
+     * Checks whether ticking this actor would only increment its time, i.e. it is neither busy
+     * nor has messages to process or in delivery and does not need to be ticked while idle.
+     * Such actors are skipped by {@link SimulatedActorSystem} until a message is sent to them.
+     *
+     * @return true if the actor has nothing to do, false otherwise
+     */
+    boolean isQuiescent() {
+        return busyFor == 0 && activeMessage == null && messageBox.isEmpty() && channel.isEmpty()
+                && !needsTickWhileIdle();
+    }
+
+    /**
+     * Determines whether the actor has to be ticked even if it has no messages to process,
+     * e.g. because it keeps a timer in an overridden {@link SimulatedActor#tick()}. Actors
+     * overriding tick() are always ticked by default, they should override this method too,
+     * if their timers are only running from time to time.
+     *
+     * @return true if tick() has to be called although the actor has no messages to process
+     */
+    protected boolean needsTickWhileIdle() {
+        return overridesTick.get(getClass());
+    }
+
+    /**
+     * Determines whether the actor can be ticked concurrently with other actors in the parallel
+     * mode of {@link SimulatedActorSystem}. Actors spawning other actors while being ticked have
+     * to return false, because actor IDs are assigned in the order actors are ticked.
+     *
+     * @return true if the actor can be ticked concurrently, false otherwise
+     */
+    protected boolean canTickInParallel() {
+        return true;
+    }
+
     /**
      * Default implementation of {@link ISimulatedActor#atStartUp()} doing nothing.
      */
@@ -5,21 +5,179 @@ import at.tugraz.ist.qs2024.messageboard.UnknownMessageException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Actor system ticking all actors once per tick in the order they have been spawned.
+ * <p>
+ * Actors without anything to do (see {@link SimulatedActor#isQuiescent()}) are skipped until
+ * a message is sent to them, so the cost of a tick depends on the number of active actors
+ * rather than on the number of all actors. The time of skipped actors is brought up to date
+ * when they are ticked again, so skipping actors does not change the observable behavior.
+ * <p>
+ * By default, actors are ticked one after the other. In parallel mode (see
+ * {@link SimulatedActorSystem#SimulatedActorSystem(int)}), each tick is executed in two phases:
+ * first the actors, which can be ticked in parallel (see {@link SimulatedActor#canTickInParallel()}),
+ * are ticked concurrently on a fork-join pool, while the messages they send and the actors they stop
+ * are buffered. Afterwards it is the turn of each actor in the order of the actors: the buffered effects
+ * of actors ticked concurrently are applied, messages sent to them by actors before them are delivered
+ * as if they had been sent before they were ticked (see {@link SimulatedActor#deliverLateMessages()}),
+ * and all other actors are ticked right away. This yields the same results as ticking the actors one
+ * after the other, including the IDs of spawned actors, as actors spawning actors are not ticked
+ * concurrently.
+ * <p>
+ * If an actor throws an exception, no further actors are ticked, the tick is not completed and the
+ * exception is rethrown like in sequential mode. Actors after the failed actor, which had already been
+ * ticked concurrently, are not rolled back, but their buffered effects are applied.
+ * <p>
+ * Actors ticked concurrently must not access objects, which another actor changes in the same tick
+ * without sending a message. Objects handed over in messages are safe, as every tick of the pool happens
+ * before the next phase. The actors of the message board only change user messages after they have
+ * received them, replicas get their own copies and queries return immutable snapshots. The dispatcher,
+ * which closes the message stores when the system is stopped, is never ticked concurrently.
+ * <p>
+ * The threads of the pool are released by {@link SimulatedActorSystem#close()}.
+ */
+public class SimulatedActorSystem implements ISimulatedActorSystem, AutoCloseable {
+
+    /**
+     * Minimum number of actors for ticking actors in parallel, smaller systems are
+     * ticked one after the other even in parallel mode
+     */
+    public static final int PARALLEL_THRESHOLD = 8;
+
+    /**
+     * Number of actors ticked by one fork-join task
+     */
+    private static final int ACTORS_PER_TASK = 4;
+
+    /**
+     * Buffer for the effects of the actor currently ticked by this thread, only set
+     * while ticking actors in parallel
+     */
+    private static final ThreadLocal<List<Runnable>> deferredEffects = new ThreadLocal<>();
 
-public class SimulatedActorSystem implements ISimulatedActorSystem {
     private final List<SimulatedActor> actors = new ArrayList<>();
     private int currentTime = 0;
 
+    /**
+     * Actors which are not asleep, keyed by their position in the order actors are ticked
+     */
+    private final TreeMap<Long, SimulatedActor> activeActors = new TreeMap<>();
+
+    /**
+     * Position of the next spawned actor in the order actors are ticked
+     */
+    private long nextSchedulingOrder = 0;
+
+    /**
+     * True while a tick is executed
+     */
+    private boolean ticking = false;
+
+    /**
+     * Position of the last actor whose turn has come in the current tick
+     */
+    private long tickCursor = -1;
+
+    /**
+     * Position of the first actor spawned during the current tick, which is not ticked in this tick
+     */
+    private long tickLimit = 0;
+
+    /**
+     * Actors stopped during the current tick before their turn, which are still ticked
+     * in this tick like in the list of actors alive at the beginning of the tick
+     */
+    private final List<SimulatedActor> stoppedDuringTick = new ArrayList<>();
+
+    /**
+     * Message log policy of actors spawned in this system, which have no policy of their own
+     */
+    private MessageLogPolicy messageLogPolicy = MessageLogPolicy.unbounded();
+
+    /**
+     * Pool ticking the actors in parallel mode, null if actors are ticked one after the other
+     */
+    private final ForkJoinPool pool;
+
     /**
      * Integral number used for creating actor IDs, which is incremented every time an actor is started.
      */
     private long currentActorId = 0;
 
+    /**
+     * Constructs a new SimulatedActorSystem ticking actors one after the other.
+     */
+    public SimulatedActorSystem() {
+        this.pool = null;
+    }
+
+    /**
+     * Constructs a new SimulatedActorSystem ticking actors in parallel, if parallelism is
+     * greater than one.
+     *
+     * @param parallelism number of threads ticking actors
+     */
+    public SimulatedActorSystem(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * @return true if actors are ticked in parallel, false otherwise
+     */
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    /**
+     * Shuts down the threads ticking actors in parallel mode. Afterwards actors are ticked
+     * one after the other.
+     */
+    @Override
+    public void close() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
     @Override
     public List<SimulatedActor> getActors() {
         return this.actors;
     }
 
+    /**
+     * @return the number of actors, which are ticked, because they are not asleep
+     */
+    public int getNumberOfActiveActors() {
+        return activeActors.size();
+    }
+
+    /**
+     * @return the message log policy of actors, which have no policy of their own
+     */
+    public MessageLogPolicy getMessageLogPolicy() {
+        return this.messageLogPolicy;
+    }
+
+    /**
+     * Sets the policy for logging the messages sent to actors, which have no policy of their
+     * own (see {@link SimulatedActor#setMessageLogPolicy}). The policy applies to actors spawned
+     * afterwards, so it should be set before the actors are spawned.
+     *
+     * @param messageLogPolicy the policy, not null
+     */
+    public void setMessageLogPolicy(MessageLogPolicy messageLogPolicy) {
+        if (messageLogPolicy == null)
+            throw new IllegalArgumentException("messageLogPolicy must not be null");
+        this.messageLogPolicy = messageLogPolicy;
+    }
+
     @Override
     public int getCurrentTime() {
         return this.currentTime;
@@ -27,8 +185,16 @@ public class SimulatedActorSystem implements ISimulatedActorSystem {
 
     @Override
     public void spawn(SimulatedActor actor) {
+        if (deferredEffects.get() != null)
+            throw new IllegalStateException("Actors ticked in parallel cannot spawn actors, "
+                    + "see SimulatedActor.canTickInParallel()");
         actors.add(actor);
         actor.setId(currentActorId++);
+        actor.scheduler = this;
+        actor.schedulingOrder = nextSchedulingOrder++;
+        actor.asleep = false;
+        activeActors.put(actor.schedulingOrder, actor);
+        actor.applySystemMessageLogPolicy(messageLogPolicy);
         actor.atStartUp();
         actor.setTimeSinceSystemStart(currentTime);
     }
@@ -49,17 +215,242 @@ public class SimulatedActorSystem implements ISimulatedActorSystem {
 
     @Override
     public void stop(SimulatedActor actor) {
+        if (defer(() -> stop(actor)))
+            return;
         actors.remove(actor);
+        if (actor.scheduler != this)
+            return;
+        if (ticking && actor.schedulingOrder > tickCursor && actor.schedulingOrder < tickLimit)
+            stoppedDuringTick.add(actor);
+        else
+            unschedule(actor);
     }
 
     @Override
     public void tick() throws UnknownClientException, UnknownMessageException {
-        // need to copy list, because actors might be spawned or stopped
-        // during tick which modifies the actors-list
-        List<SimulatedActor> currentlyAliveActors = new ArrayList<>(actors);
-        for (SimulatedActor actor : currentlyAliveActors) {
+        // actors might be spawned or stopped during tick, only the actors alive at
+        // the beginning of the tick are ticked
+        ticking = true;
+        tickCursor = -1;
+        tickLimit = nextSchedulingOrder;
+        try {
+            if (pool == null || pool.isShutdown() || activeActors.size() < PARALLEL_THRESHOLD)
+                tickActiveActors();
+            else
+                tickInParallel();
+            currentTime++;
+        } finally {
+            ticking = false;
+            for (SimulatedActor actor : stoppedDuringTick) {
+                unschedule(actor);
+            }
+            stoppedDuringTick.clear();
+        }
+    }
+
+    /**
+     * Internal helper method ticking the active actors one after the other, including actors
+     * woken up by actors ticked before them.
+     */
+    private void tickActiveActors() throws UnknownClientException, UnknownMessageException {
+        SimulatedActor actor;
+        while ((actor = nextActiveActor()) != null) {
+            resume(actor);
+            tickCursor = actor.schedulingOrder;
             actor.tick();
+            sleepIfQuiescent(actor);
+        }
+    }
+
+    /**
+     * @return the next active actor, whose turn has not come in the current tick, or null if there is none
+     */
+    private SimulatedActor nextActiveActor() {
+        Map.Entry<Long, SimulatedActor> next = activeActors.higherEntry(tickCursor);
+        return next != null && next.getKey() < tickLimit ? next.getValue() : null;
+    }
+
+    /**
+     * Schedules an actor again, which a message has been sent to.
+     *
+     * @param actor an actor of this system
+     */
+    void wake(SimulatedActor actor) {
+        activeActors.put(actor.schedulingOrder, actor);
+    }
+
+    /**
+     * Counts the ticks, which have passed the given actor so far, i.e. the ticks completed
+     * and the current tick, if the turn of the actor has come already.
+     *
+     * @param actor an actor of this system
+     * @return the number of ticks passed
+     */
+    int ticksPassed(SimulatedActor actor) {
+        return ticking && actor.schedulingOrder <= tickCursor ? currentTime + 1 : currentTime;
+    }
+
+    /**
+     * Internal helper method adding the ticks skipped while an actor was asleep to its time,
+     * before the actor is ticked again.
+     */
+    private void resume(SimulatedActor actor) {
+        if (actor.asleep) {
+            actor.timeSinceSystemStart = actor.getTimeSinceSystemStart();
+            actor.asleep = false;
+        }
+    }
+
+    /**
+     * Internal helper method skipping an actor after its turn, until a message is sent to it.
+     */
+    private void sleepIfQuiescent(SimulatedActor actor) {
+        if (actor.scheduler == this && !actor.asleep && actor.isQuiescent()) {
+            activeActors.remove(actor.schedulingOrder);
+            actor.asleep = true;
+            actor.asleepSince = ticksPassed(actor);
+        }
+    }
+
+    private void unschedule(SimulatedActor actor) {
+        resume(actor);
+        activeActors.remove(actor.schedulingOrder, actor);
+        actor.scheduler = null;
+    }
+
+    /**
+     * Buffers an effect of an actor on other actors, if the current thread ticks an actor
+     * in parallel mode.
+     *
+     * @param effect the effect to apply in the turn of the actor, after the concurrent phase
+     * @return true if the effect has been buffered, false if it has to be applied immediately
+     */
+    static boolean defer(Runnable effect) {
+        List<Runnable> effects = deferredEffects.get();
+        if (effects == null)
+            return false;
+        effects.add(effect);
+        return true;
+    }
+
+    /**
+     * Internal helper method ticking the actors, which can be ticked in parallel, concurrently and
+     * afterwards giving every actor its turn in the order of the actors. Actors, which are not
+     * ticked concurrently, including actors woken up by actors before them, are ticked in their turn.
+     */
+    private void tickInParallel() throws UnknownClientException, UnknownMessageException {
+        List<SimulatedActor> concurrentActors = new ArrayList<>(activeActors.size());
+        for (SimulatedActor actor : activeActors.values()) {
+            if (actor.canTickInParallel()) {
+                resume(actor);
+                concurrentActors.add(actor);
+            }
+        }
+        int n = concurrentActors.size();
+        List<List<Runnable>> effects = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            effects.add(new ArrayList<>());
+        }
+        Throwable[] failures = new Throwable[n];
+        boolean[] ticked = new boolean[n];
+        pool.invoke(new TickTask(concurrentActors, effects, failures, ticked, new AtomicBoolean(), 0, n));
+
+        Throwable failure = null;
+        int i = 0;
+        SimulatedActor actor;
+        while ((actor = nextActiveActor()) != null) {
+            int index = i < n && concurrentActors.get(i) == actor ? i++ : -1;
+            boolean tickedConcurrently = index >= 0 && ticked[index];
+            if (failure != null) {
+                // the tick has been aborted, only effects of actors already ticked are applied
+                tickCursor = actor.schedulingOrder;
+                if (tickedConcurrently)
+                    applyEffects(effects.get(index));
+            } else if (tickedConcurrently) {
+                tickCursor = actor.schedulingOrder;
+                actor.deliverLateMessages();
+                applyEffects(effects.get(index));
+                failure = failures[index];
+            } else {
+                // actor not ticked concurrently, because it spawns actors, has been woken up by
+                // an actor before it or the concurrent phase has been stopped by a failure
+                resume(actor);
+                tickCursor = actor.schedulingOrder;
+                try {
+                    actor.tick();
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }
+            if (failure == null)
+                sleepIfQuiescent(actor);
+        }
+
+        if (failure != null) {
+            if (failure instanceof UnknownClientException)
+                throw (UnknownClientException) failure;
+            if (failure instanceof UnknownMessageException)
+                throw (UnknownMessageException) failure;
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            if (failure instanceof Error)
+                throw (Error) failure;
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    private static void applyEffects(List<Runnable> effects) {
+        for (Runnable effect : effects) {
+            effect.run();
+        }
+    }
+
+    /**
+     * Fork-join task ticking a range of actors, buffering the effects of each actor.
+     * After the first failure no further actors are ticked.
+     */
+    private static class TickTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<SimulatedActor> actors;
+        private final List<List<Runnable>> effects;
+        private final Throwable[] failures;
+        private final boolean[] ticked;
+        private final AtomicBoolean failed;
+        private final int from;
+        private final int to;
+
+        TickTask(List<SimulatedActor> actors, List<List<Runnable>> effects, Throwable[] failures,
+                 boolean[] ticked, AtomicBoolean failed, int from, int to) {
+            this.actors = actors;
+            this.effects = effects;
+            this.failures = failures;
+            this.ticked = ticked;
+            this.failed = failed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ACTORS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TickTask(actors, effects, failures, ticked, failed, from, middle),
+                        new TickTask(actors, effects, failures, ticked, failed, middle, to));
+                return;
+            }
+            for (int i = from; i < to && !failed.get(); i++) {
+                deferredEffects.set(effects.get(i));
+                ticked[i] = true;
+                try {
+                    actors.get(i).tick();
+                } catch (Throwable t) {
+                    failures[i] = t;
+                    failed.set(true);
+                } finally {
+                    deferredEffects.remove();
+                }
+            }
         }
-        currentTime++;
     }
 }
@@ -8,6 +8,7 @@ import at.tugraz.ist.qs2024.messageboard.clientmessages.OperationFailed;
 import at.tugraz.ist.qs2024.messageboard.dispatchermessages.Stop;
 import at.tugraz.ist.qs2024.messageboard.dispatchermessages.StopAck;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -54,18 +55,139 @@ public class Dispatcher extends SimulatedActor {
     private final List<Long> acksToCollect;
 
     /**
-     * Message store, which is used by workers to persist application data.
+     * Number of message store shards
+     */
+    private final int numberOfShards;
+
+    /**
+     * Message store shards, which are used by workers to persist application data.
+     * Each shard owns a disjoint range of message IDs (see {@link StoreRouter}).
+     */
+    protected final List<MessageStore> messageStores;
+
+    /**
+     * The message store of the first shard, which is the only message store unless
+     * the store is partitioned. Set on start-up like <c>messageStores</c>.
      */
     protected MessageStore messageStore;
 
+    /**
+     * Number of read replicas of each message store shard
+     */
+    private final int replicasPerShard;
+
+    /**
+     * Read replicas of the message store shards, which answer queries of the workers
+     */
+    private final List<MessageStore> replicaStores;
+
+    /**
+     * Maximum number of store operations a worker sends as a single batch (see {@link Worker#setBatching(int, int)})
+     */
+    private int maxBatchSize;
+
+    /**
+     * Maximum number of ticks a worker keeps back a store operation to batch it with later operations
+     */
+    private int maxBatchDelay;
+
+    /**
+     * Directory containing the write-ahead logs of the message store shards (null if the stores are not persistent)
+     */
+    private Path persistenceDirectory;
+
+    /**
+     * Number of changes after which a message store shard takes a snapshot
+     */
+    private int snapshotInterval;
+
     public Dispatcher(SimulatedActorSystem system, int numberOfWorkers) {
+        this(system, numberOfWorkers, 1);
+    }
+
+    /**
+     * Constructs a new Dispatcher object, which partitions the message store
+     * into the given number of shards.
+     *
+     * @param system          the system, which is used to spawn actors
+     * @param numberOfWorkers number of workers
+     * @param numberOfShards  number of message store shards
+     * @throws IllegalArgumentException if there is not at least one shard
+     */
+    public Dispatcher(SimulatedActorSystem system, int numberOfWorkers, int numberOfShards) {
+        this(system, numberOfWorkers, numberOfShards, 0);
+    }
+
+    /**
+     * Constructs a new Dispatcher object, which partitions the message store
+     * into the given number of shards, each having the given number of read replicas.
+     *
+     * @param system           the system, which is used to spawn actors
+     * @param numberOfWorkers  number of workers
+     * @param numberOfShards   number of message store shards
+     * @param replicasPerShard number of read replicas of each shard
+     * @throws IllegalArgumentException if there is not at least one shard or the number of replicas is negative
+     */
+    public Dispatcher(SimulatedActorSystem system, int numberOfWorkers, int numberOfShards, int replicasPerShard) {
+        if (numberOfShards < 1)
+            throw new IllegalArgumentException("numberOfShards must be positive");
+        if (replicasPerShard < 0)
+            throw new IllegalArgumentException("replicasPerShard must not be negative");
         this.system = system;
         this.workers = new ArrayList<>(numberOfWorkers);
         this.numberOfWorkers = numberOfWorkers;
+        this.numberOfShards = numberOfShards;
+        this.messageStores = new ArrayList<>(numberOfShards);
+        this.replicasPerShard = replicasPerShard;
+        this.replicaStores = new ArrayList<>(numberOfShards * replicasPerShard);
+        this.maxBatchSize = 1;
+        this.maxBatchDelay = 0;
+        this.snapshotInterval = StorePersistence.DEFAULT_SNAPSHOT_INTERVAL;
         this.mode = Mode.NORMAL;
         this.acksToCollect = new ArrayList<>();
     }
 
+    /**
+     * Enables batching of store operations for all workers, which have to be set before
+     * the dispatcher is spawned. By default every operation is sent on its own.
+     *
+     * @param maxBatchSize  maximum number of operations a worker sends to one store as a single batch
+     * @param maxBatchDelay maximum number of ticks a worker keeps back an operation
+     */
+    public void setStoreBatching(int maxBatchSize, int maxBatchDelay) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelay = maxBatchDelay;
+    }
+
+    /**
+     * Makes the message stores persistent, which has to be set before the dispatcher is spawned.
+     * Each shard keeps its snapshots and write-ahead log in the given directory and loads them
+     * on start-up, so the stores continue with the state of the last run using the same directory.
+     *
+     * @param persistenceDirectory existing directory for the files of the stores
+     */
+    public void setPersistenceDirectory(Path persistenceDirectory) {
+        this.persistenceDirectory = persistenceDirectory;
+    }
+
+    /**
+     * Sets the number of changes after which a persistent message store shard takes a snapshot,
+     * which has to be set before the dispatcher is spawned.
+     *
+     * @param snapshotInterval number of changes between two snapshots
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * @param shardIndex index of a message store shard
+     * @return the prefix of the names of all files of the shard
+     */
+    private static String storeNameOfShard(int shardIndex) {
+        return "store-" + shardIndex;
+    }
+
     /**
      * Depending on messages sent and the mode, different actions are performed.
      *
@@ -82,17 +204,56 @@ public class Dispatcher extends SimulatedActor {
     }
 
     /**
-     * Creates all Workers and the message store
+     * The dispatcher closes the message stores when the system is stopped, which changes the state
+     * of the stores, so it is not ticked concurrently with other actors.
+     */
+    @Override
+    protected boolean canTickInParallel() {
+        return false;
+    }
+
+    /**
+     * Creates all Workers, the message store shards and their read replicas
      */
     @Override
     public void atStartUp() {
-        messageStore = new MessageStore();
+        List<List<MessageStore>> replicasOfShards = new ArrayList<>(numberOfShards);
+        for (int i = 0; i < numberOfShards; i++) {
+            MessageStore messageStore = new MessageStore(StoreRouter.firstIdOfShard(i));
+            if (persistenceDirectory != null)
+                messageStore.setPersistence(persistenceDirectory, storeNameOfShard(i), snapshotInterval);
+            List<MessageStore> replicas = new ArrayList<>(replicasPerShard);
+            for (int j = 0; j < replicasPerShard; j++) {
+                MessageStore replica = new MessageStore(StoreRouter.firstIdOfShard(i), true);
+                if (persistenceDirectory != null)
+                    replica.setPersistence(persistenceDirectory, storeNameOfShard(i), snapshotInterval);
+                messageStore.addReplica(replica);
+                replicas.add(replica);
+            }
+            messageStores.add(messageStore);
+            replicasOfShards.add(replicas);
+            replicaStores.addAll(replicas);
+        }
+        messageStore = messageStores.get(0);
+        for (MessageStore messageStore : messageStores) {
+            List<MessageStore> peers = new ArrayList<>(messageStores);
+            peers.remove(messageStore);
+            messageStore.setPeers(peers);
+        }
+        StoreRouter storeRouter = new StoreRouter(messageStores, replicasOfShards);
         for (int i = 0; i < numberOfWorkers; i++) {
-            Worker w = new Worker(this, messageStore, system);
+            Worker w = new Worker(this, storeRouter, system);
+            w.setBatching(maxBatchSize, maxBatchDelay);
             system.spawn(w);
             workers.add(w);
         }
-        system.spawn(messageStore);
+        for (MessageStore messageStore : messageStores) {
+            system.spawn(messageStore);
+        }
+        // replicas are spawned after their primaries, so changes reach them within the same tick
+        for (MessageStore replica : replicaStores) {
+            system.spawn(replica);
+        }
     }
 
     /**
@@ -112,7 +273,13 @@ public class Dispatcher extends SimulatedActor {
             acksToCollect.remove(actor.getId());
             system.stop(actor);
             if (acksToCollect.size() == 0) {
-                system.stop(messageStore);
+                for (MessageStore messageStore : messageStores) {
+                    messageStore.close();
+                    system.stop(messageStore);
+                }
+                for (MessageStore replica : replicaStores) {
+                    system.stop(replica);
+                }
                 system.stop(this);
             }
         }
@@ -0,0 +1,195 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Set of non-negative ints, e.g. IDs of a {@link NameDictionary}, stored without boxing
+ * in an open-addressing hash table with linear probing.
+ * <p>
+ * The table is only allocated when the first element is added, so empty sets are cheap.
+ * Removed elements leave a tombstone behind, which keeps iterators valid while removing
+ * elements, the tombstones are dropped when the table is rebuilt. The iteration order
+ * is the order of the table.
+ */
+final class IntSet {
+
+    private static final int FREE = -1;
+
+    private static final int REMOVED = -2;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * The slots, null while the set has never contained elements
+     */
+    private int[] table;
+
+    /**
+     * Number of elements
+     */
+    private int size;
+
+    /**
+     * Number of slots containing an element or a tombstone
+     */
+    private int used;
+
+    /**
+     * Constructs a new empty set.
+     */
+    IntSet() {
+    }
+
+    /**
+     * Constructs a new set containing the elements of the given set.
+     *
+     * @param other the set to copy
+     */
+    IntSet(IntSet other) {
+        this.table = other.table == null ? null : other.table.clone();
+        this.size = other.size;
+        this.used = other.used;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param value a non-negative int
+     * @return true if the set contains the given value, false otherwise
+     */
+    boolean contains(int value) {
+        return value >= 0 && table != null && table[slotOf(value)] == value;
+    }
+
+    /**
+     * @param value a non-negative int
+     * @return true if the value was added, false if the set already contained it
+     */
+    boolean add(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative value " + value);
+        if (table == null)
+            table = newTable(INITIAL_CAPACITY);
+        int slot = slotOf(value);
+        if (table[slot] == value)
+            return false;
+        if ((used + 1) * 4 > table.length * 3) {
+            rebuild(size + 1);
+            slot = slotOf(value);
+        }
+        if (table[slot] == FREE)
+            used++;
+        table[slot] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param value a non-negative int
+     * @return true if the value was removed, false if the set did not contain it
+     */
+    boolean remove(int value) {
+        if (value < 0 || table == null)
+            return false;
+        int slot = slotOf(value);
+        if (table[slot] != value)
+            return false;
+        table[slot] = REMOVED;
+        size--;
+        return true;
+    }
+
+    /**
+     * @return an iterator over the elements, which supports removing elements
+     */
+    PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+
+            private int next = advance(0);
+
+            private int current = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next < 0)
+                    throw new NoSuchElementException();
+                current = next;
+                next = advance(next + 1);
+                return table[current];
+            }
+
+            @Override
+            public void remove() {
+                if (current < 0 || table[current] < 0)
+                    throw new IllegalStateException();
+                table[current] = REMOVED;
+                size--;
+            }
+
+            private int advance(int slot) {
+                if (table == null)
+                    return -1;
+                while (slot < table.length && table[slot] < 0)
+                    slot++;
+                return slot < table.length ? slot : -1;
+            }
+        };
+    }
+
+    /**
+     * Finds the slot containing the given value or, if the value is not contained,
+     * the slot the value has to be added at. Tombstones are reused for adding.
+     */
+    private int slotOf(int value) {
+        int mask = table.length - 1;
+        int slot = (value * 0x9E3779B9 >>> 16) & mask;
+        int firstRemoved = -1;
+        while (true) {
+            int element = table[slot];
+            if (element == value)
+                return slot;
+            if (element == FREE)
+                return firstRemoved >= 0 ? firstRemoved : slot;
+            if (element == REMOVED && firstRemoved < 0)
+                firstRemoved = slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Rebuilds the table without tombstones, with enough room for the given number of elements.
+     */
+    private void rebuild(int minSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (minSize * 2 > capacity)
+            capacity *= 2;
+        int[] old = table;
+        table = newTable(capacity);
+        used = 0;
+        for (int element : old) {
+            if (element >= 0) {
+                table[slotOf(element)] = element;
+                used++;
+            }
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] newTable = new int[capacity];
+        Arrays.fill(newTable, FREE);
+        return newTable;
+    }
+}
@@ -0,0 +1,764 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import at.tugraz.ist.qs2024.actorsystem.Message;
+import at.tugraz.ist.qs2024.actorsystem.SimulatedActor;
+import at.tugraz.ist.qs2024.actorsystem.SimulatedActorSystem;
+import at.tugraz.ist.qs2024.messageboard.clientmessages.*;
+import at.tugraz.ist.qs2024.messageboard.dispatchermessages.Stop;
+import at.tugraz.ist.qs2024.messageboard.dispatchermessages.StopAck;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.*;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+/**
+ * Binary encoding of user messages and of all messages exchanged between clients,
+ * dispatcher, workers and message stores.
+ * <p>
+ * An encoded message starts with the format version and a tag identifying its class,
+ * followed by its fields in declaration order. Numbers are stored big-endian with
+ * fixed size, strings as their length in bytes followed by their UTF-8 encoding
+ * (length -1 for null) and actors by their ID (<c>SimulatedActorSystem.NEW_ACTOR</c> for null).
+ * Nested messages are stored with their tag only, tag 0 stands for null.
+ * <p>
+ * Messages are written directly into the given buffer and read directly from it, strings
+ * are converted using a buffer owned by the codec, so a codec must not be used by several
+ * threads at once. If the buffer is too small, encoding fails with a {@link BufferOverflowException}
+ * and the position of the buffer is undefined.
+ */
+public class MessageCodec {
+
+    /**
+     * Version of the encoding, which is written in front of every encoded message
+     */
+    public static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    // client messages
+    private static final byte DELETE = 1;
+    private static final byte DISLIKE = 2;
+    private static final byte EDIT = 3;
+    private static final byte FINISH_ACK = 4;
+    private static final byte FINISH_COMMUNICATION = 5;
+    private static final byte FOUND_MESSAGES = 6;
+    private static final byte INIT_ACK = 7;
+    private static final byte INIT_COMMUNICATION = 8;
+    private static final byte LIKE = 9;
+    private static final byte OPERATION_ACK = 10;
+    private static final byte OPERATION_FAILED = 11;
+    private static final byte PUBLISH = 12;
+    private static final byte REACTION = 13;
+    private static final byte REACTION_RESPONSE = 14;
+    private static final byte REMOVE_LIKE_OR_DISLIKE = 15;
+    private static final byte REPORT = 16;
+    private static final byte RETRIEVE_MESSAGES = 17;
+    private static final byte RETRIEVE_TOP_MESSAGES = 18;
+    private static final byte SEARCH_MESSAGES = 19;
+    private static final byte USER_BANNED = 20;
+    // message store messages
+    private static final byte ADD_DISLIKE = 32;
+    private static final byte ADD_LIKE = 33;
+    private static final byte ADD_REACTION = 34;
+    private static final byte ADD_REPORT = 35;
+    private static final byte BAN_USER = 36;
+    private static final byte DELETE_LIKE_OR_DISLIKE = 37;
+    private static final byte DELETE_MESSAGE = 38;
+    private static final byte EDIT_MESSAGE = 39;
+    private static final byte REPLICATE_CHANGE = 40;
+    private static final byte RETRIEVE_FROM_STORE = 41;
+    private static final byte RETRIEVE_TOP_FROM_STORE = 42;
+    private static final byte SEARCH_IN_STORE = 43;
+    private static final byte STORE_BATCH = 44;
+    private static final byte STORE_BATCH_REPLY = 45;
+    private static final byte UPDATE_MESSAGE_STORE = 46;
+    // dispatcher messages
+    private static final byte STOP = 64;
+    private static final byte STOP_ACK = 65;
+
+    private static final Reaction.Emoji[] EMOJIS = Reaction.Emoji.values();
+
+    private static final RemoveLikeOrDislike.Type[] TYPES = RemoveLikeOrDislike.Type.values();
+
+    /**
+     * Looks up actors by their ID when decoding messages
+     */
+    private final LongFunction<SimulatedActor> actors;
+
+    /**
+     * Reused for converting strings while decoding
+     */
+    private char[] chars;
+
+    /**
+     * Constructs a new MessageCodec object, which decodes all actors referenced by messages as null.
+     */
+    public MessageCodec() {
+        this(id -> null);
+    }
+
+    /**
+     * Constructs a new MessageCodec object.
+     *
+     * @param actors looks up actors by their ID when decoding messages, it is never called for null actors
+     */
+    public MessageCodec(LongFunction<SimulatedActor> actors) {
+        this.actors = actors;
+        this.chars = new char[64];
+    }
+
+    /**
+     * Writes a message at the current position of the buffer.
+     *
+     * @param message the message
+     * @param buffer  the buffer, its position is advanced to the end of the encoded message
+     * @throws BufferOverflowException  if the buffer is too small
+     * @throws IllegalArgumentException if the message cannot be encoded
+     */
+    public void encode(Message message, ByteBuffer buffer) {
+        buffer.put(VERSION);
+        writeMessage(message, buffer);
+    }
+
+    /**
+     * Reads a message at the current position of the buffer.
+     *
+     * @param buffer the buffer, its position is advanced to the end of the encoded message
+     * @return the decoded message
+     * @throws IllegalArgumentException if the buffer does not contain a message of a supported version
+     */
+    public Message decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported version " + version);
+        return readMessage(buffer);
+    }
+
+    /**
+     * Writes a user message including its likes, dislikes and reactions at the current position of the buffer.
+     *
+     * @param message the user message
+     * @param buffer  the buffer, its position is advanced to the end of the encoded user message
+     * @throws BufferOverflowException if the buffer is too small
+     */
+    public void encodeUserMessage(UserMessage message, ByteBuffer buffer) {
+        encodeUserMessageHeader(message, buffer);
+        encodeInteractions(message, buffer);
+    }
+
+    /**
+     * Reads a user message written by {@link MessageCodec#encodeUserMessage(UserMessage, ByteBuffer)}.
+     *
+     * @param buffer the buffer, its position is advanced to the end of the encoded user message
+     * @return the decoded user message
+     */
+    public UserMessage decodeUserMessage(ByteBuffer buffer) {
+        UserMessage message = decodeUserMessageHeader(buffer);
+        decodeInteractions(buffer, message);
+        return message;
+    }
+
+    /**
+     * Writes the ID, points, author and text of a user message, which is the first part of
+     * {@link MessageCodec#encodeUserMessage(UserMessage, ByteBuffer)}.
+     *
+     * @param message the user message
+     * @param buffer  the buffer, its position is advanced to the end of the encoded fields
+     * @throws BufferOverflowException if the buffer is too small
+     */
+    void encodeUserMessageHeader(UserMessage message, ByteBuffer buffer) {
+        buffer.putLong(message.getMessageId());
+        buffer.putInt(message.getPoints());
+        writeString(message.getAuthor(), buffer);
+        writeString(message.getMessage(), buffer);
+    }
+
+    /**
+     * Reads the fields written by {@link MessageCodec#encodeUserMessageHeader(UserMessage, ByteBuffer)}.
+     *
+     * @param buffer the buffer, its position is advanced to the end of the encoded fields
+     * @return a new user message without likes, dislikes and reactions
+     */
+    UserMessage decodeUserMessageHeader(ByteBuffer buffer) {
+        long messageId = buffer.getLong();
+        int points = buffer.getInt();
+        UserMessage message = new UserMessage(readString(buffer), readString(buffer));
+        message.setMessageId(messageId);
+        message.setPoints(points);
+        return message;
+    }
+
+    /**
+     * Writes the likes, dislikes and reactions of a user message, which are the second part of
+     * {@link MessageCodec#encodeUserMessage(UserMessage, ByteBuffer)}.
+     *
+     * @param message the user message
+     * @param buffer  the buffer, its position is advanced to the end of the encoded interactions
+     * @throws BufferOverflowException if the buffer is too small
+     */
+    void encodeInteractions(UserMessage message, ByteBuffer buffer) {
+        writeStrings(message.getLikes(), buffer);
+        writeStrings(message.getDislikes(), buffer);
+        Map<String, Byte> reactions = message.getReactions();
+        buffer.putInt(reactions.size());
+        for (Map.Entry<String, Byte> reaction : reactions.entrySet()) {
+            writeString(reaction.getKey(), buffer);
+            buffer.put(reaction.getValue());
+        }
+    }
+
+    /**
+     * Reads the interactions written by {@link MessageCodec#encodeInteractions(UserMessage, ByteBuffer)}
+     * and adds them to a user message.
+     *
+     * @param buffer  the buffer, its position is advanced to the end of the encoded interactions
+     * @param message the user message to add the interactions to
+     */
+    void decodeInteractions(ByteBuffer buffer, UserMessage message) {
+        readStrings(buffer, message.getLikes());
+        readStrings(buffer, message.getDislikes());
+        int reactions = buffer.getInt();
+        for (int i = 0; i < reactions; i++) {
+            String clientName = readString(buffer);
+            int mask = buffer.get() & 0xFF;
+            for (Reaction.Emoji emoji : EMOJIS) {
+                if ((mask & (1 << emoji.ordinal())) != 0)
+                    message.addReaction(clientName, emoji);
+            }
+        }
+    }
+
+    private void writeMessage(Message message, ByteBuffer buffer) {
+        if (message == null) {
+            buffer.put(NULL);
+        } else if (message instanceof ClientMessage) {
+            writeClientMessage((ClientMessage) message, buffer);
+        } else if (message instanceof MessageStoreMessage) {
+            writeStoreMessage((MessageStoreMessage) message, buffer);
+        } else if (message instanceof StoreBatchReply) {
+            StoreBatchReply reply = (StoreBatchReply) message;
+            buffer.put(STORE_BATCH_REPLY);
+            buffer.putLong(reply.communicationId);
+            buffer.putInt(reply.replies.size());
+            for (Message nested : reply.replies) {
+                writeMessage(nested, buffer);
+            }
+        } else if (message instanceof Stop) {
+            buffer.put(STOP);
+        } else if (message instanceof StopAck) {
+            buffer.put(STOP_ACK);
+            writeActor(((StopAck) message).sender, buffer);
+        } else {
+            throw new IllegalArgumentException("Message cannot be encoded: " + message.getClass().getSimpleName());
+        }
+    }
+
+    private void writeClientMessage(ClientMessage message, ByteBuffer buffer) {
+        if (message instanceof Delete) {
+            Delete delete = (Delete) message;
+            buffer.put(DELETE);
+            buffer.putLong(delete.communicationId);
+            buffer.putLong(delete.messageId);
+            writeString(delete.clientName, buffer);
+        } else if (message instanceof Dislike) {
+            Dislike dislike = (Dislike) message;
+            buffer.put(DISLIKE);
+            buffer.putLong(dislike.communicationId);
+            buffer.putLong(dislike.messageId);
+            writeString(dislike.clientName, buffer);
+        } else if (message instanceof Edit) {
+            Edit edit = (Edit) message;
+            buffer.put(EDIT);
+            buffer.putLong(edit.communicationId);
+            buffer.putLong(edit.messageId);
+            writeString(edit.clientName, buffer);
+            writeString(edit.newMessage, buffer);
+        } else if (message instanceof FinishAck) {
+            buffer.put(FINISH_ACK);
+            buffer.putLong(message.communicationId);
+        } else if (message instanceof FinishCommunication) {
+            buffer.put(FINISH_COMMUNICATION);
+            buffer.putLong(message.communicationId);
+        } else if (message instanceof FoundMessages) {
+            FoundMessages found = (FoundMessages) message;
+            buffer.put(FOUND_MESSAGES);
+            buffer.putLong(found.communicationId);
+            buffer.putLong(found.nextCursor);
+            buffer.putInt(found.messages.size());
+            for (UserMessage userMessage : found.messages) {
+                encodeUserMessage(userMessage, buffer);
+            }
+        } else if (message instanceof InitAck) {
+            buffer.put(INIT_ACK);
+            buffer.putLong(message.communicationId);
+            writeActor(((InitAck) message).worker, buffer);
+        } else if (message instanceof InitCommunication) {
+            buffer.put(INIT_COMMUNICATION);
+            buffer.putLong(message.communicationId);
+            writeActor(((InitCommunication) message).client, buffer);
+        } else if (message instanceof Like) {
+            Like like = (Like) message;
+            buffer.put(LIKE);
+            buffer.putLong(like.communicationId);
+            buffer.putLong(like.messageId);
+            writeString(like.clientName, buffer);
+        } else if (message instanceof OperationAck) {
+            buffer.put(OPERATION_ACK);
+            buffer.putLong(message.communicationId);
+        } else if (message instanceof OperationFailed) {
+            buffer.put(OPERATION_FAILED);
+            buffer.putLong(message.communicationId);
+        } else if (message instanceof Publish) {
+            buffer.put(PUBLISH);
+            buffer.putLong(message.communicationId);
+            encodeUserMessage(((Publish) message).message, buffer);
+        } else if (message instanceof Reaction) {
+            Reaction reaction = (Reaction) message;
+            buffer.put(REACTION);
+            buffer.putLong(reaction.communicationId);
+            buffer.putLong(reaction.messageId);
+            writeString(reaction.clientName, buffer);
+            buffer.put((byte) reaction.reaction.ordinal());
+        } else if (message instanceof ReactionResponse) {
+            ReactionResponse response = (ReactionResponse) message;
+            buffer.put(REACTION_RESPONSE);
+            buffer.putLong(response.communicationId);
+            buffer.putInt(response.points);
+            writeString(response.reaction, buffer);
+        } else if (message instanceof RemoveLikeOrDislike) {
+            RemoveLikeOrDislike remove = (RemoveLikeOrDislike) message;
+            buffer.put(REMOVE_LIKE_OR_DISLIKE);
+            buffer.putLong(remove.communicationId);
+            buffer.putLong(remove.messageId);
+            writeString(remove.clientName, buffer);
+            buffer.put((byte) remove.typeToDelete.ordinal());
+        } else if (message instanceof Report) {
+            Report report = (Report) message;
+            buffer.put(REPORT);
+            buffer.putLong(report.communicationId);
+            writeString(report.clientName, buffer);
+            writeString(report.reportedClientName, buffer);
+        } else if (message instanceof RetrieveMessages) {
+            RetrieveMessages retrieve = (RetrieveMessages) message;
+            buffer.put(RETRIEVE_MESSAGES);
+            buffer.putLong(retrieve.communicationId);
+            writeString(retrieve.author, buffer);
+            buffer.putInt(retrieve.limit);
+            buffer.putLong(retrieve.cursor);
+        } else if (message instanceof RetrieveTopMessages) {
+            buffer.put(RETRIEVE_TOP_MESSAGES);
+            buffer.putLong(message.communicationId);
+            buffer.putInt(((RetrieveTopMessages) message).count);
+        } else if (message instanceof SearchMessages) {
+            SearchMessages search = (SearchMessages) message;
+            buffer.put(SEARCH_MESSAGES);
+            buffer.putLong(search.communicationId);
+            writeString(search.searchText, buffer);
+            buffer.putInt(search.limit);
+            buffer.putLong(search.cursor);
+        } else if (message instanceof UserBanned) {
+            buffer.put(USER_BANNED);
+            buffer.putLong(message.communicationId);
+        } else {
+            throw new IllegalArgumentException("Message cannot be encoded: " + message.getClass().getSimpleName());
+        }
+    }
+
+    private void writeStoreMessage(MessageStoreMessage message, ByteBuffer buffer) {
+        if (message instanceof AddDislike) {
+            AddDislike addDislike = (AddDislike) message;
+            buffer.put(ADD_DISLIKE);
+            writeStoreHeader(message, buffer);
+            buffer.putLong(addDislike.messageId);
+            writeString(addDislike.clientName, buffer);
+        } else if (message instanceof AddLike) {
+            AddLike addLike = (AddLike) message;
+            buffer.put(ADD_LIKE);
+            writeStoreHeader(message, buffer);
+            buffer.putLong(addLike.messageId);
+            writeString(addLike.clientName, buffer);
+        } else if (message instanceof AddReaction) {
+            AddReaction addReaction = (AddReaction) message;
+            buffer.put(ADD_REACTION);
+            writeStoreHeader(message, buffer);
+            buffer.putLong(addReaction.messageId);
+            writeString(addReaction.clientName, buffer);
+            buffer.put((byte) addReaction.reaction.ordinal());
+        } else if (message instanceof AddReport) {
+            AddReport addReport = (AddReport) message;
+            buffer.put(ADD_REPORT);
+            writeStoreHeader(message, buffer);
+            writeString(addReport.clientName, buffer);
+            writeString(addReport.reportedClientName, buffer);
+        } else if (message instanceof BanUser) {
+            buffer.put(BAN_USER);
+            writeStoreHeader(message, buffer);
+            writeString(((BanUser) message).clientName, buffer);
+        } else if (message instanceof DeleteLikeOrDislike) {
+            DeleteLikeOrDislike delete = (DeleteLikeOrDislike) message;
+            buffer.put(DELETE_LIKE_OR_DISLIKE);
+            writeStoreHeader(message, buffer);
+            buffer.putLong(delete.messageId);
+            writeString(delete.clientName, buffer);
+            buffer.put((byte) delete.typeToDelete.ordinal());
+        } else if (message instanceof DeleteMessage) {
+            DeleteMessage delete = (DeleteMessage) message;
+            buffer.put(DELETE_MESSAGE);
+            writeStoreHeader(message, buffer);
+            buffer.putLong(delete.messageId);
+            writeString(delete.clientName, buffer);
+        } else if (message instanceof EditMessage) {
+            EditMessage edit = (EditMessage) message;
+            buffer.put(EDIT_MESSAGE);
+            writeStoreHeader(message, buffer);
+            buffer.putLong(edit.messageId);
+            writeString(edit.clientName, buffer);
+            writeString(edit.newMessage, buffer);
+        } else if (message instanceof ReplicateChange) {
+            ReplicateChange replicateChange = (ReplicateChange) message;
+            buffer.put(REPLICATE_CHANGE);
+            writeStoreHeader(message, buffer);
+            buffer.putLong(replicateChange.sequenceNumber);
+            writeMessage(replicateChange.change, buffer);
+        } else if (message instanceof RetrieveFromStore) {
+            RetrieveFromStore retrieve = (RetrieveFromStore) message;
+            buffer.put(RETRIEVE_FROM_STORE);
+            writeStoreHeader(message, buffer);
+            writeString(retrieve.author, buffer);
+            buffer.putInt(retrieve.limit);
+            buffer.putLong(retrieve.cursor);
+        } else if (message instanceof RetrieveTopFromStore) {
+            buffer.put(RETRIEVE_TOP_FROM_STORE);
+            writeStoreHeader(message, buffer);
+            buffer.putInt(((RetrieveTopFromStore) message).count);
+        } else if (message instanceof SearchInStore) {
+            SearchInStore search = (SearchInStore) message;
+            buffer.put(SEARCH_IN_STORE);
+            writeStoreHeader(message, buffer);
+            writeString(search.searchText, buffer);
+            buffer.putInt(search.limit);
+            buffer.putLong(search.cursor);
+        } else if (message instanceof StoreBatch) {
+            List<MessageStoreMessage> operations = ((StoreBatch) message).operations;
+            buffer.put(STORE_BATCH);
+            writeStoreHeader(message, buffer);
+            buffer.putInt(operations.size());
+            for (MessageStoreMessage operation : operations) {
+                writeMessage(operation, buffer);
+            }
+        } else if (message instanceof UpdateMessageStore) {
+            buffer.put(UPDATE_MESSAGE_STORE);
+            writeStoreHeader(message, buffer);
+            encodeUserMessage(((UpdateMessageStore) message).message, buffer);
+        } else {
+            throw new IllegalArgumentException("Message cannot be encoded: " + message.getClass().getSimpleName());
+        }
+    }
+
+    private void writeStoreHeader(MessageStoreMessage message, ByteBuffer buffer) {
+        buffer.putLong(message.communicationId);
+        writeActor(message.storeClient, buffer);
+    }
+
+    private Message readMessage(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case DELETE: {
+                long communicationId = buffer.getLong();
+                long messageId = buffer.getLong();
+                return new Delete(messageId, readString(buffer), communicationId);
+            }
+            case DISLIKE: {
+                long communicationId = buffer.getLong();
+                long messageId = buffer.getLong();
+                return new Dislike(readString(buffer), communicationId, messageId);
+            }
+            case EDIT: {
+                long communicationId = buffer.getLong();
+                long messageId = buffer.getLong();
+                String clientName = readString(buffer);
+                return new Edit(messageId, clientName, readString(buffer), communicationId);
+            }
+            case FINISH_ACK:
+                return new FinishAck(buffer.getLong());
+            case FINISH_COMMUNICATION:
+                return new FinishCommunication(buffer.getLong());
+            case FOUND_MESSAGES: {
+                long communicationId = buffer.getLong();
+                long nextCursor = buffer.getLong();
+                int count = buffer.getInt();
+                List<UserMessage> messages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    messages.add(decodeUserMessage(buffer));
+                }
+                return new FoundMessages(messages, communicationId, nextCursor);
+            }
+            case INIT_ACK: {
+                long communicationId = buffer.getLong();
+                return new InitAck(readActor(buffer), communicationId);
+            }
+            case INIT_COMMUNICATION: {
+                long communicationId = buffer.getLong();
+                return new InitCommunication(readActor(buffer), communicationId);
+            }
+            case LIKE: {
+                long communicationId = buffer.getLong();
+                long messageId = buffer.getLong();
+                return new Like(readString(buffer), communicationId, messageId);
+            }
+            case OPERATION_ACK:
+                return new OperationAck(buffer.getLong());
+            case OPERATION_FAILED:
+                return new OperationFailed(buffer.getLong());
+            case PUBLISH: {
+                long communicationId = buffer.getLong();
+                return new Publish(decodeUserMessage(buffer), communicationId);
+            }
+            case REACTION: {
+                long communicationId = buffer.getLong();
+                long messageId = buffer.getLong();
+                String clientName = readString(buffer);
+                return new Reaction(clientName, communicationId, messageId, EMOJIS[buffer.get()]);
+            }
+            case REACTION_RESPONSE: {
+                ReactionResponse response = new ReactionResponse(buffer.getLong(), buffer.getInt());
+                response.reaction = readString(buffer);
+                return response;
+            }
+            case REMOVE_LIKE_OR_DISLIKE: {
+                long communicationId = buffer.getLong();
+                long messageId = buffer.getLong();
+                String clientName = readString(buffer);
+                return new RemoveLikeOrDislike(clientName, communicationId, messageId, TYPES[buffer.get()]);
+            }
+            case REPORT: {
+                long communicationId = buffer.getLong();
+                String clientName = readString(buffer);
+                return new Report(clientName, communicationId, readString(buffer));
+            }
+            case RETRIEVE_MESSAGES: {
+                long communicationId = buffer.getLong();
+                String author = readString(buffer);
+                int limit = buffer.getInt();
+                return new RetrieveMessages(author, communicationId, limit, buffer.getLong());
+            }
+            case RETRIEVE_TOP_MESSAGES: {
+                long communicationId = buffer.getLong();
+                return new RetrieveTopMessages(buffer.getInt(), communicationId);
+            }
+            case SEARCH_MESSAGES: {
+                long communicationId = buffer.getLong();
+                String searchText = readString(buffer);
+                int limit = buffer.getInt();
+                return new SearchMessages(searchText, communicationId, limit, buffer.getLong());
+            }
+            case USER_BANNED:
+                return new UserBanned(buffer.getLong());
+            case STORE_BATCH_REPLY: {
+                long communicationId = buffer.getLong();
+                int count = buffer.getInt();
+                List<Message> replies = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    replies.add(readMessage(buffer));
+                }
+                return new StoreBatchReply(replies, communicationId);
+            }
+            case STOP:
+                return new Stop();
+            case STOP_ACK:
+                return new StopAck(readActor(buffer));
+            default:
+                return readStoreMessage(tag, buffer);
+        }
+    }
+
+    private MessageStoreMessage readStoreMessage(byte tag, ByteBuffer buffer) {
+        long communicationId = buffer.getLong();
+        SimulatedActor storeClient = readActor(buffer);
+        MessageStoreMessage message;
+        switch (tag) {
+            case ADD_DISLIKE: {
+                long messageId = buffer.getLong();
+                message = new AddDislike(readString(buffer), messageId, communicationId);
+                break;
+            }
+            case ADD_LIKE: {
+                long messageId = buffer.getLong();
+                message = new AddLike(readString(buffer), messageId, communicationId);
+                break;
+            }
+            case ADD_REACTION: {
+                long messageId = buffer.getLong();
+                String clientName = readString(buffer);
+                message = new AddReaction(clientName, messageId, communicationId, EMOJIS[buffer.get()]);
+                break;
+            }
+            case ADD_REPORT: {
+                String clientName = readString(buffer);
+                message = new AddReport(clientName, communicationId, readString(buffer));
+                break;
+            }
+            case BAN_USER:
+                message = new BanUser(readString(buffer));
+                break;
+            case DELETE_LIKE_OR_DISLIKE: {
+                long messageId = buffer.getLong();
+                String clientName = readString(buffer);
+                message = new DeleteLikeOrDislike(clientName, communicationId, messageId, TYPES[buffer.get()]);
+                break;
+            }
+            case DELETE_MESSAGE: {
+                long messageId = buffer.getLong();
+                message = new DeleteMessage(readString(buffer), messageId, communicationId);
+                break;
+            }
+            case EDIT_MESSAGE: {
+                long messageId = buffer.getLong();
+                String clientName = readString(buffer);
+                message = new EditMessage(messageId, clientName, readString(buffer), communicationId);
+                break;
+            }
+            case REPLICATE_CHANGE: {
+                long sequenceNumber = buffer.getLong();
+                message = new ReplicateChange(sequenceNumber, (MessageStoreMessage) readMessage(buffer));
+                break;
+            }
+            case RETRIEVE_FROM_STORE: {
+                String author = readString(buffer);
+                int limit = buffer.getInt();
+                message = new RetrieveFromStore(author, communicationId, limit, buffer.getLong());
+                break;
+            }
+            case RETRIEVE_TOP_FROM_STORE:
+                message = new RetrieveTopFromStore(buffer.getInt(), communicationId);
+                break;
+            case SEARCH_IN_STORE: {
+                String searchText = readString(buffer);
+                int limit = buffer.getInt();
+                message = new SearchInStore(searchText, communicationId, limit, buffer.getLong());
+                break;
+            }
+            case STORE_BATCH: {
+                int count = buffer.getInt();
+                List<MessageStoreMessage> operations = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    operations.add((MessageStoreMessage) readMessage(buffer));
+                }
+                message = new StoreBatch(operations, communicationId);
+                break;
+            }
+            case UPDATE_MESSAGE_STORE:
+                message = new UpdateMessageStore(decodeUserMessage(buffer), communicationId);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message tag " + tag);
+        }
+        message.communicationId = communicationId;
+        message.storeClient = storeClient;
+        return message;
+    }
+
+    private void writeActor(SimulatedActor actor, ByteBuffer buffer) {
+        buffer.putLong(actor == null ? SimulatedActorSystem.NEW_ACTOR : actor.getId());
+    }
+
+    private SimulatedActor readActor(ByteBuffer buffer) {
+        long id = buffer.getLong();
+        return id == SimulatedActorSystem.NEW_ACTOR ? null : actors.apply(id);
+    }
+
+    /**
+     * Writes the number of strings followed by the strings.
+     */
+    void writeStrings(Set<String> values, ByteBuffer buffer) {
+        buffer.putInt(values.size());
+        for (String value : values) {
+            writeString(value, buffer);
+        }
+    }
+
+    /**
+     * Reads strings written by {@link MessageCodec#writeStrings(Set, ByteBuffer)} and adds them to the given set.
+     */
+    void readStrings(ByteBuffer buffer, Set<String> values) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            values.add(readString(buffer));
+        }
+    }
+
+    /**
+     * Writes the UTF-8 encoding of a string directly into the buffer. The length is written
+     * after the characters, into the four bytes reserved in front of them.
+     */
+    static void writeString(String value, ByteBuffer buffer) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        int start = buffer.position();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates cannot be encoded, like String.getBytes
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buffer.putInt(lengthPosition, buffer.position() - start);
+    }
+
+    /**
+     * Reads a string written by {@link MessageCodec#writeString(String, ByteBuffer)}.
+     */
+    String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        if (length > buffer.remaining())
+            throw new IllegalArgumentException("String exceeds the buffer");
+        if (chars.length < length)
+            chars = new char[Math.max(length, chars.length * 2)];
+        int count = 0;
+        int end = buffer.position() + length;
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+            } else if (b < 0xF0) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+            } else {
+                int codePoint = ((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12) | ((buffer.get() & 0x3F) << 6)
+                        | (buffer.get() & 0x3F);
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
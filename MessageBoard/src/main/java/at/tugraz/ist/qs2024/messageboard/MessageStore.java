@@ -6,6 +6,9 @@ import at.tugraz.ist.qs2024.actorsystem.SimulatedActor;
 import at.tugraz.ist.qs2024.messageboard.clientmessages.*;
 import at.tugraz.ist.qs2024.messageboard.messagestoremessages.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -18,20 +21,123 @@ public class MessageStore extends SimulatedActor {
      */
     public final static int USER_BLOCKED_AT_COUNT = 5;
     /**
-     * All reports, the key in the dictionary corresponds to a
-     * client name and the value is a set of client names that
-     * have reported that user.
+     * Order of the messages returned for <c>RetrieveTopFromStore</c>: most points first,
+     * messages with equal points in ascending order of their IDs
      */
-    private final Map<String, HashSet<String>> reports;
+    final static Comparator<UserMessage> BY_POINTS =
+            Comparator.comparingInt(UserMessage::getPoints).reversed().thenComparingLong(UserMessage::getMessageId);
     /**
-     * All messages stored, the key of the dictionary corresponds to
-     * the message ID of the user message stored as value.
+     * Dictionary of all client names known to the store. Likes, dislikes, reactions,
+     * reports and bans refer to clients by the IDs assigned by this dictionary, names
+     * are only resolved when they are returned.
      */
-    protected Map<Long, UserMessage> messages;
+    private final NameDictionary names;
+    /**
+     * All reports, indexed by the name ID of the reported client. Each set contains
+     * the name IDs of the clients that have reported that user (null if the client
+     * has never been reported).
+     */
+    private final List<IntSet> reports;
+    /**
+     * Name IDs of all clients which have been reported by more than
+     * <c>USER_BLOCKED_AT_COUNT</c> other users. It is updated whenever a report
+     * crosses the threshold, so checking for a ban is a single lookup.
+     */
+    private final BitSet bannedUsers;
+    /**
+     * All messages stored, indexed by the message ID of the user messages.
+     */
+    protected final MessageTable messages;
+    /**
+     * Secondary index over <c>messages</c>, the key in the dictionary corresponds
+     * to an author and the value is the set of IDs of all messages stored for that
+     * author in ascending order. It is kept in sync by every operation adding or
+     * removing messages, so looking up the messages of one author does not have to
+     * walk the whole store.
+     */
+    private final Map<String, TreeSet<Long>> messagesByAuthor;
+    /**
+     * Uniqueness index over <c>messages</c>, the key in the dictionary corresponds
+     * to an author and the value is the set of message texts currently stored for
+     * that author. It is used to reject duplicate messages on publish and edit.
+     * The texts are shared with the stored messages and compared in their packed form.
+     */
+    private final Map<String, HashSet<PackedText>> messageTextsByAuthor;
+    /**
+     * Inverted index over the author names and message texts of <c>messages</c>,
+     * which is used to narrow down the candidates of a search.
+     */
+    private final TrigramIndex searchIndex;
+    /**
+     * Results of recent searches, which are invalidated whenever messages matching
+     * the search text are added, removed or edited
+     */
+    private final SearchCache searchCache;
+    /**
+     * All messages of <c>messages</c> ordered by their points. As the order depends on
+     * the points, messages have to be removed before their points are changed and
+     * added again afterwards (see {@link MessageStore#addPoints(UserMessage, int)}).
+     */
+    private final TreeSet<UserMessage> messagesByPoints;
     /**
      * integral number which is used to create new message IDs
      */
     private long currentId;
+    /**
+     * The other shards of a partitioned store, which are informed if a
+     * user gets banned (empty if the store is not partitioned)
+     */
+    private final List<MessageStore> peers;
+    /**
+     * True if this store is a read replica, which only answers queries and
+     * applies the changes sent by its primary store
+     */
+    private final boolean readOnly;
+    /**
+     * The read replicas of this store, which receive every successfully applied change
+     */
+    private final List<MessageStore> replicas;
+    /**
+     * On a primary store the sequence number of the next change sent to the replicas,
+     * on a replica the sequence number of the next change to apply
+     */
+    private long nextSequenceNumber;
+    /**
+     * Changes received by a replica ahead of their turn, keyed by their sequence number
+     */
+    private final TreeMap<Long, MessageStoreMessage> pendingChanges;
+    /**
+     * Snapshots and write-ahead log, which are loaded on start-up (null if the store is not persistent).
+     * A read replica only loads the files of its primary store.
+     */
+    private StorePersistence persistence;
+    /**
+     * True if changes are appended to the write-ahead log, which is the case for a persistent
+     * primary store after start-up
+     */
+    private boolean logging;
+    /**
+     * True once the store has been closed, after which changes are rejected, as they would not be
+     * written to the write-ahead log anymore
+     */
+    private boolean closed;
+    /**
+     * Number of changes after which a snapshot is taken
+     */
+    private int snapshotInterval;
+    /**
+     * Number of changes appended to the write-ahead log since the last snapshot
+     */
+    private int changesSinceSnapshot;
+    /**
+     * Receivers of the messages in <c>heldMessages</c>
+     */
+    private final List<SimulatedActor> heldReceivers;
+    /**
+     * Replies and changes sent by a persistent store, which are held back until the changes
+     * they depend on have been committed to the write-ahead log
+     */
+    private final List<Message> heldMessages;
 
     /**
      * Constructs a new MessageStore object, the channel is set to a
@@ -39,14 +145,56 @@ public class MessageStore extends SimulatedActor {
      * the store.
      */
     public MessageStore() {
-        this.messages = new HashMap<>();
-        this.reports = new HashMap<>();
+        this(0);
+    }
+
+    /**
+     * Constructs a new MessageStore object, which is one shard of a partitioned
+     * store and assigns message IDs starting at the given ID.
+     *
+     * @param firstId the ID of the first message stored
+     */
+    public MessageStore(long firstId) {
+        this(firstId, false);
+    }
+
+    /**
+     * Constructs a new MessageStore object, which is either a primary store or
+     * a read replica of a primary store assigning message IDs starting at the given ID.
+     *
+     * @param firstId  the ID of the first message stored
+     * @param readOnly true if the store is a read replica
+     */
+    MessageStore(long firstId, boolean readOnly) {
+        this.messages = new MessageTable(firstId);
+        this.messagesByAuthor = new HashMap<>();
+        this.messageTextsByAuthor = new HashMap<>();
+        this.searchIndex = new TrigramIndex();
+        this.searchCache = new SearchCache();
+        this.messagesByPoints = new TreeSet<>(BY_POINTS);
+        this.names = new NameDictionary();
+        this.reports = new ArrayList<>();
+        this.bannedUsers = new BitSet();
 
-        this.currentId = 0;
+        this.currentId = firstId;
+        this.peers = new ArrayList<>();
+        this.readOnly = readOnly;
+        this.replicas = new ArrayList<>();
+        this.nextSequenceNumber = 0;
+        this.pendingChanges = new TreeMap<>();
+        this.heldReceivers = new ArrayList<>();
+        this.heldMessages = new ArrayList<>();
         // good connection between WorkerHelper and MessageStore -> no delay
         this.channel = new DeterministicChannel(0);
     }
 
+    /**
+     * @return the cache of search results of this store, e.g. to monitor its hit rate
+     */
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+
     /**
      * The message processing logic for the store.
      * <p>
@@ -79,10 +227,17 @@ public class MessageStore extends SimulatedActor {
      * by the same user. If a user has been reported by more than 5 other users,
      * he cannot like, dislike, delete, edit, report or update/publish any messages.
      * <p>
+     * If the message passed as parameter is of type <c>BanUser</c>, the user is
+     * banned, because another shard has received too many reports for him. No response is sent.
+     * <p>
      * If the message passed as parameter is of type <c>SearchInStore</c>,
      * all messages where the search-text is contained in the author name or the message text
      * are looked up and sent back to the client of the store.
      * <p>
+     * If the message passed as parameter is of type <c>RetrieveTopFromStore</c>,
+     * the given number of messages with the most points are looked up and sent back
+     * to the client of the store.
+     * <p>
      * If the message passed as parameter is of type <c>EditMessage</c>,
      * the message to edit was previously published by the editing user and she has not already published another message
      * identical to the new message, then the old message is edited and updated to the new message text.
@@ -90,104 +245,432 @@ public class MessageStore extends SimulatedActor {
      * If the message passed as parameter is of type <c>DeleteMessage</c>,
      * a message is deleted if the message exists and was published by the deleting user.
      * <p>
+     * If the message passed as parameter is of type <c>ReplicateChange</c>, the store is
+     * a read replica and applies the change of its primary store. Changes are applied
+     * in the order of their sequence numbers. No response is sent.
+     * <p>
      * In case of success either a ReactionResponse or an OperationAck message is sent to the client, otherwise
      * an UserBanned message or an OperationFailed message is sent, depending
-     * on if the user was reported too often.
+     * on if the user was reported too often. Every change applied successfully is appended
+     * to the write-ahead log of a persistent store and sent to the read replicas of the store.
+     * <p>
+     * A read replica and a store, which has been closed (see {@link MessageStore#close()}), only answer
+     * <c>RetrieveFromStore</c>, <c>SearchInStore</c> and <c>RetrieveTopFromStore</c>, all other requests fail.
+     * <p>
+     * If the message passed as parameter is of type <c>StoreBatch</c>, all operations
+     * of the batch are processed as described above in the order of the batch. The replies
+     * are collected and sent back to the client of the store as a single <c>StoreBatchReply</c>.
      *
      * @param message Non-null message received
      */
     @Override
     public void receive(Message message) {
-        if (message instanceof RetrieveFromStore) {
+        if (message instanceof StoreBatch) {
+            StoreBatch batch = (StoreBatch) message;
+            List<Message> replies = new ArrayList<>(batch.operations.size());
+            for (MessageStoreMessage operation : batch.operations) {
+                replies.add(process(operation));
+            }
+            send(batch.storeClient, new StoreBatchReply(replies, batch.communicationId));
+        } else if (message instanceof MessageStoreMessage) {
+            MessageStoreMessage storeMessage = (MessageStoreMessage) message;
+            Message reply = process(storeMessage);
+            if (reply != null && storeMessage.storeClient != null)
+                send(storeMessage.storeClient, reply);
+        }
+    }
+
+    /**
+     * Internal helper method applying a single store message as described in
+     * {@link MessageStore#receive(Message)}.
+     *
+     * @param message the store message
+     * @return the reply for the client of the store or null, if no reply is sent
+     */
+    private Message process(MessageStoreMessage message) {
+        if (message instanceof ReplicateChange) {
+            applyInOrder((ReplicateChange) message);
+        } else if ((readOnly || closed) && !isQuery(message)) {
+            return new OperationFailed(message.communicationId);
+        } else if (message instanceof RetrieveFromStore) {
             RetrieveFromStore retrieve = (RetrieveFromStore) message;
-            List<UserMessage> foundMessage = findByAuthor(retrieve.author);
-            retrieve.storeClient.tell(new FoundMessages(foundMessage, retrieve.communicationId));
+            List<UserMessage> foundMessage = findByAuthor(retrieve.author, retrieve.limit, retrieve.cursor);
+            return page(foundMessage, retrieve.limit, retrieve.communicationId);
         } else if (message instanceof AddLike) {
             AddLike addLikeMessage = (AddLike) message;
             if (isBanned(addLikeMessage.clientName)) {
-                addLikeMessage.storeClient.tell(new UserBanned(addLikeMessage.communicationId));
+                return new UserBanned(addLikeMessage.communicationId);
             } else if (addLike(addLikeMessage.clientName, addLikeMessage.messageId)) {
                 UserMessage likedMessage = messages.get(addLikeMessage.messageId);
-                addLikeMessage.storeClient.tell(new ReactionResponse(addLikeMessage.communicationId, likedMessage.getPoints()));
+                recordChange(addLikeMessage);
+                return new ReactionResponse(addLikeMessage.communicationId, likedMessage.getPoints());
             } else {
-                addLikeMessage.storeClient.tell(new OperationFailed(addLikeMessage.communicationId));
+                return new OperationFailed(addLikeMessage.communicationId);
             }
         } else if (message instanceof AddDislike) {
             AddDislike addDislikeMessage = (AddDislike) message;
             if (isBanned(addDislikeMessage.clientName)) {
-                addDislikeMessage.storeClient.tell(new UserBanned(addDislikeMessage.communicationId));
+                return new UserBanned(addDislikeMessage.communicationId);
             } else if (addDislike(addDislikeMessage.clientName, addDislikeMessage.messageId)) {
                 UserMessage dislikedMessage = messages.get(addDislikeMessage.messageId);
-                addDislikeMessage.storeClient.tell(new ReactionResponse(addDislikeMessage.communicationId, dislikedMessage.getPoints()));
+                recordChange(addDislikeMessage);
+                return new ReactionResponse(addDislikeMessage.communicationId, dislikedMessage.getPoints());
             } else {
-                addDislikeMessage.storeClient.tell(new OperationFailed(addDislikeMessage.communicationId));
+                return new OperationFailed(addDislikeMessage.communicationId);
             }
         } else if (message instanceof DeleteLikeOrDislike) {
             DeleteLikeOrDislike deleteLikeOrDislikeMessage = (DeleteLikeOrDislike) message;
             if (isBanned(deleteLikeOrDislikeMessage.clientName)) {
-                deleteLikeOrDislikeMessage.storeClient.tell(new UserBanned(deleteLikeOrDislikeMessage.communicationId));
+                return new UserBanned(deleteLikeOrDislikeMessage.communicationId);
             } else if (deleteLikeOrDislike(deleteLikeOrDislikeMessage.clientName, deleteLikeOrDislikeMessage.messageId,
                     deleteLikeOrDislikeMessage.typeToDelete)) {
                 UserMessage likeOrDislikeMessageDeleted = messages.get(deleteLikeOrDislikeMessage.messageId);
-                deleteLikeOrDislikeMessage.storeClient.tell(new ReactionResponse(deleteLikeOrDislikeMessage.communicationId, likeOrDislikeMessageDeleted.getPoints()));
+                recordChange(deleteLikeOrDislikeMessage);
+                return new ReactionResponse(deleteLikeOrDislikeMessage.communicationId, likeOrDislikeMessageDeleted.getPoints());
             } else {
-                deleteLikeOrDislikeMessage.storeClient.tell(new OperationFailed(deleteLikeOrDislikeMessage.communicationId));
+                return new OperationFailed(deleteLikeOrDislikeMessage.communicationId);
             }
         } else if (message instanceof AddReaction) {
             AddReaction addReactionMessage = (AddReaction) message;
             if (isBanned(addReactionMessage.clientName)) {
-                addReactionMessage.storeClient.tell(new UserBanned(addReactionMessage.communicationId));
+                return new UserBanned(addReactionMessage.communicationId);
             } else if (addReaction(addReactionMessage.clientName, addReactionMessage.messageId, addReactionMessage.reaction)) {
-                addReactionMessage.storeClient.tell(new ReactionResponse(addReactionMessage.communicationId, addReactionMessage.reaction.toString()));
+                recordChange(addReactionMessage);
+                return new ReactionResponse(addReactionMessage.communicationId, addReactionMessage.reaction.toString());
             } else {
-                addReactionMessage.storeClient.tell(new OperationFailed(addReactionMessage.communicationId));
+                return new OperationFailed(addReactionMessage.communicationId);
             }
         } else if (message instanceof UpdateMessageStore) {
             UpdateMessageStore updateMessage = (UpdateMessageStore) message;
             if (isBanned(updateMessage.message.getAuthor())) {
-                updateMessage.storeClient.tell(new UserBanned(updateMessage.communicationId));
+                return new UserBanned(updateMessage.communicationId);
             } else if (update(updateMessage.message)) {
-                updateMessage.storeClient.tell(new OperationAck(updateMessage.communicationId));
+                recordChange(updateMessage);
+                return new OperationAck(updateMessage.communicationId);
             } else {
-                updateMessage.storeClient.tell(new OperationFailed(updateMessage.communicationId));
+                return new OperationFailed(updateMessage.communicationId);
             }
         } else if (message instanceof AddReport) {
             AddReport reportMessage = (AddReport) message;
             if (isBanned(reportMessage.clientName)) {
-                reportMessage.storeClient.tell(new UserBanned(reportMessage.communicationId));
+                return new UserBanned(reportMessage.communicationId);
             } else if (addReport(reportMessage.clientName, reportMessage.reportedClientName)) {
-                reportMessage.storeClient.tell(new OperationAck(reportMessage.communicationId));
+                recordChange(reportMessage);
+                return new OperationAck(reportMessage.communicationId);
             } else {
-                reportMessage.storeClient.tell(new OperationFailed(reportMessage.communicationId));
+                return new OperationFailed(reportMessage.communicationId);
             }
+        } else if (message instanceof BanUser) {
+            BanUser banMessage = (BanUser) message;
+            if (ban(banMessage.clientName))
+                recordChange(banMessage);
         } else if (message instanceof SearchInStore) {
             SearchInStore searchMessage = (SearchInStore) message;
-            List<UserMessage> foundMessage = findByAuthorOrText(searchMessage.searchText);
-            searchMessage.storeClient.tell(new FoundMessages(foundMessage, searchMessage.communicationId));
+            List<UserMessage> foundMessage = findByAuthorOrText(searchMessage.searchText, searchMessage.limit,
+                    searchMessage.cursor);
+            return page(foundMessage, searchMessage.limit, searchMessage.communicationId);
+        } else if (message instanceof RetrieveTopFromStore) {
+            RetrieveTopFromStore retrieveTop = (RetrieveTopFromStore) message;
+            List<UserMessage> foundMessage = findTop(retrieveTop.count);
+            return new FoundMessages(snapshots(foundMessage), retrieveTop.communicationId);
         } else if (message instanceof EditMessage) {
             EditMessage editMessage = (EditMessage) message;
             if (isBanned(editMessage.clientName)) {
-                editMessage.storeClient.tell(new UserBanned(editMessage.communicationId));
+                return new UserBanned(editMessage.communicationId);
             } else if (editMessage(editMessage.messageId, editMessage.clientName, editMessage.newMessage)) {
-                editMessage.storeClient.tell(new OperationAck(editMessage.communicationId));
+                recordChange(editMessage);
+                return new OperationAck(editMessage.communicationId);
             } else {
-                editMessage.storeClient.tell(new OperationFailed(editMessage.communicationId));
+                return new OperationFailed(editMessage.communicationId);
             }
         } else if (message instanceof DeleteMessage) {
             DeleteMessage deleteMessage = (DeleteMessage) message;
             if (isBanned(deleteMessage.clientName)) {
-                deleteMessage.storeClient.tell(new UserBanned(deleteMessage.communicationId));
+                return new UserBanned(deleteMessage.communicationId);
             } else if (deleteMessage(deleteMessage.clientName, deleteMessage.messageId)) {
-                deleteMessage.storeClient.tell(new OperationAck(deleteMessage.communicationId));
+                recordChange(deleteMessage);
+                return new OperationAck(deleteMessage.communicationId);
             } else {
-                deleteMessage.storeClient.tell(new OperationFailed(deleteMessage.communicationId));
+                return new OperationFailed(deleteMessage.communicationId);
             }
         }
+        return null;
+    }
+
+    /**
+     * Makes the store persistent. On start-up the store loads the newest snapshot, replays
+     * the write-ahead log written after it and afterwards appends all changes to the log.
+     * Every <c>snapshotInterval</c> changes a new snapshot is taken, so the log does not grow
+     * without bounds. A read replica has to be given the files of its primary store, which
+     * it loads without changing them.
+     *
+     * @param directory        existing directory containing the files of the store
+     * @param storeName        prefix of the names of all files of the store
+     * @param snapshotInterval number of changes after which a snapshot is taken
+     */
+    void setPersistence(Path directory, String storeName, int snapshotInterval) {
+        this.persistence = new StorePersistence(directory, storeName);
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Loads the newest snapshot and replays the write-ahead log, if the store is persistent.
+     */
+    @Override
+    public void atStartUp() {
+        if (persistence == null)
+            return;
+        try {
+            StoreSnapshot snapshot = persistence.loadSnapshot();
+            if (snapshot != null)
+                restore(snapshot);
+            for (MessageStoreMessage change : persistence.recoverLog(readOnly)) {
+                apply(change);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logging = !readOnly;
+    }
+
+    /**
+     * Overridden tick()-method, which commits the changes applied during the tick to
+     * the write-ahead log at once (group commit) and afterwards sends the held back messages.
+     * If enough changes have been applied since the last snapshot, a new snapshot is taken.
+     */
+    @Override
+    public void tick() throws UnknownClientException, UnknownMessageException {
+        super.tick();
+        if (logging) {
+            persistence.commit();
+            if (changesSinceSnapshot > 0 && changesSinceSnapshot >= snapshotInterval)
+                takeSnapshot();
+            releaseHeldMessages();
+        }
+    }
+
+    /**
+     * Changes are committed and held back messages are released at the end of the tick they
+     * have been made in, so apart from a due snapshot an idle store has nothing to do.
+     */
+    @Override
+    protected boolean needsTickWhileIdle() {
+        return logging && (!heldMessages.isEmpty() || changesSinceSnapshot > 0 && changesSinceSnapshot >= snapshotInterval);
+    }
+
+    /**
+     * Commits all pending changes, takes a final snapshot and closes the files,
+     * which is done when the store is stopped. Store messages arriving afterwards,
+     * e.g. retries of workers, are only answered if they are queries.
+     */
+    void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (!logging)
+            return;
+        if (changesSinceSnapshot > 0)
+            takeSnapshot();
+        try {
+            persistence.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logging = false;
+        releaseHeldMessages();
+    }
+
+    /**
+     * Internal helper method taking a snapshot of the current state. The state is captured right away
+     * without copying the messages, encoding it and writing it to disk is done in the background.
+     */
+    private void takeSnapshot() {
+        persistence.takeSnapshot(StoreSnapshot.capture(currentId, messages, names, reports, bannedUsers));
+        changesSinceSnapshot = 0;
+    }
+
+    /**
+     * Internal helper method restoring the state of a snapshot into the empty store.
+     *
+     * @param snapshot the loaded snapshot
+     */
+    private void restore(StoreSnapshot snapshot) {
+        for (UserMessage message : snapshot.messages) {
+            message.useDictionary(names);
+            messages.put(message);
+            addToIndexes(message);
+        }
+        for (Map.Entry<String, HashSet<String>> report : snapshot.reports.entrySet()) {
+            for (String clientName : report.getValue()) {
+                reportersOf(report.getKey()).add(names.idOf(clientName));
+            }
+        }
+        for (String clientName : snapshot.bannedUsers) {
+            ban(clientName);
+        }
+        currentId = Math.max(currentId, snapshot.currentId);
+    }
+
+    /**
+     * Internal helper method sending a message, which is held back until the next commit
+     * of the write-ahead log if the store is persistent.
+     *
+     * @param receiver the receiver of the message
+     * @param message  the message
+     */
+    private void send(SimulatedActor receiver, Message message) {
+        if (!logging) {
+            receiver.tell(message);
+        } else {
+            heldReceivers.add(receiver);
+            heldMessages.add(message);
+        }
+    }
+
+    private void releaseHeldMessages() {
+        for (int i = 0; i < heldMessages.size(); i++) {
+            heldReceivers.get(i).tell(heldMessages.get(i));
+        }
+        heldReceivers.clear();
+        heldMessages.clear();
+    }
+
+    /**
+     * Sets the other shards of a partitioned store. Reports of a user are only
+     * handled by one shard, which informs all other shards when the user gets banned.
+     *
+     * @param peers all other shards
+     */
+    void setPeers(List<MessageStore> peers) {
+        this.peers.clear();
+        this.peers.addAll(peers);
+    }
+
+    /**
+     * Adds a read replica, which receives all changes applied by this store from now on.
+     *
+     * @param replica a read replica, which has not applied any changes yet
+     */
+    void addReplica(MessageStore replica) {
+        replicas.add(replica);
+    }
+
+    /**
+     * @param message a message received by the store
+     * @return true if the message is a query which does not change the store, false otherwise
+     */
+    private static boolean isQuery(Message message) {
+        return message instanceof RetrieveFromStore || message instanceof SearchInStore ||
+                message instanceof RetrieveTopFromStore;
+    }
+
+    /**
+     * Internal helper method appending a successfully applied change to the write-ahead log
+     * and sending it to all read replicas.
+     *
+     * @param change the applied store message
+     */
+    private void recordChange(MessageStoreMessage change) {
+        if (logging) {
+            persistence.append(change);
+            changesSinceSnapshot++;
+        }
+        if (replicas.isEmpty())
+            return;
+        if (change instanceof UpdateMessageStore) {
+            // replicas get their own copy, as the stored message is changed by later requests
+            UpdateMessageStore update = (UpdateMessageStore) change;
+            change = new UpdateMessageStore(update.message.copy(), update.communicationId);
+        }
+        ReplicateChange replicateChange = new ReplicateChange(nextSequenceNumber++, change);
+        for (MessageStore replica : replicas) {
+            send(replica, replicateChange);
+        }
+    }
+
+    /**
+     * Internal helper method applying the changes of the primary store in the order of
+     * their sequence numbers. Changes arriving ahead of their turn are kept until
+     * all previous changes have been applied.
+     *
+     * @param replicateChange the change received from the primary store
+     */
+    private void applyInOrder(ReplicateChange replicateChange) {
+        if (replicateChange.sequenceNumber < nextSequenceNumber)
+            return;
+        pendingChanges.put(replicateChange.sequenceNumber, replicateChange.change);
+        MessageStoreMessage change;
+        while ((change = pendingChanges.remove(nextSequenceNumber)) != null) {
+            apply(change);
+            nextSequenceNumber++;
+        }
+    }
+
+    /**
+     * Internal helper method applying a change of the primary store. The change
+     * has already been checked by the primary store, so only the state is updated.
+     *
+     * @param change the store message applied by the primary store
+     */
+    private void apply(MessageStoreMessage change) {
+        if (change instanceof UpdateMessageStore) {
+            // the change is shared by all replicas, each stores its own copy
+            insert(((UpdateMessageStore) change).message.copy());
+        } else if (change instanceof AddLike) {
+            AddLike addLike = (AddLike) change;
+            addLike(addLike.clientName, addLike.messageId);
+        } else if (change instanceof AddDislike) {
+            AddDislike addDislike = (AddDislike) change;
+            addDislike(addDislike.clientName, addDislike.messageId);
+        } else if (change instanceof DeleteLikeOrDislike) {
+            DeleteLikeOrDislike delete = (DeleteLikeOrDislike) change;
+            deleteLikeOrDislike(delete.clientName, delete.messageId, delete.typeToDelete);
+        } else if (change instanceof AddReaction) {
+            AddReaction addReaction = (AddReaction) change;
+            addReaction(addReaction.clientName, addReaction.messageId, addReaction.reaction);
+        } else if (change instanceof AddReport) {
+            AddReport addReport = (AddReport) change;
+            addReport(addReport.clientName, addReport.reportedClientName);
+        } else if (change instanceof BanUser) {
+            ban(((BanUser) change).clientName);
+        } else if (change instanceof EditMessage) {
+            EditMessage edit = (EditMessage) change;
+            editMessage(edit.messageId, edit.clientName, edit.newMessage);
+        } else if (change instanceof DeleteMessage) {
+            DeleteMessage delete = (DeleteMessage) change;
+            deleteMessage(delete.clientName, delete.messageId);
+        }
+    }
+
+    /**
+     * Internal helper method storing a message which already has got its ID assigned.
+     *
+     * @param message the user message to be stored
+     */
+    private void insert(UserMessage message) {
+        message.useDictionary(names);
+        messages.put(message);
+        addToIndexes(message);
+        currentId = Math.max(currentId, message.getMessageId() + 1);
     }
 
     private boolean isBanned(String clientName) {
-        HashSet<String> reporters = reports.getOrDefault(clientName, null);
-        return reporters != null && reporters.size() > USER_BLOCKED_AT_COUNT;
+        int clientId = names.find(clientName);
+        return clientId != NameDictionary.UNKNOWN && bannedUsers.get(clientId);
+    }
+
+    /**
+     * Internal helper method banning a user.
+     *
+     * @param clientName the name of the user to be banned
+     * @return true if the user has been banned, false if the user was already banned
+     */
+    private boolean ban(String clientName) {
+        int clientId = names.idOf(clientName);
+        if (bannedUsers.get(clientId))
+            return false;
+        bannedUsers.set(clientId);
+        return true;
     }
 
     /**
@@ -199,16 +682,11 @@ public class MessageStore extends SimulatedActor {
     private boolean update(UserMessage message) {
 
         if (message.getMessageId() == UserMessage.NEW_ID) {
-            boolean containsSameMessage = false;
-            for (UserMessage m : messages.values()) {
-                if (m.getAuthor().equals(message.getAuthor()) && m.getMessage().equals(message.getMessage())) {
-                    containsSameMessage = true;
-                    break; // added
-                }
-            }
-            if (!containsSameMessage) {
+            if (!containsSameMessage(message.getAuthor(), message.getPackedMessage())) {
+                message.useDictionary(names);
                 message.setMessageId(currentId++);
-                messages.put(message.getMessageId(), message);
+                messages.put(message);
+                addToIndexes(message);
                 return true;
             }
         }
@@ -217,36 +695,232 @@ public class MessageStore extends SimulatedActor {
 
     /**
      * Internal helper method containing the logic for looking up messages.
+     * At most one message more than the limit is looked up, which is used
+     * to determine the cursor of the next page.
      *
      * @param author the name of the author of the returned messages
-     * @return all messages posted by the given author
+     * @param limit  the page size or <c>FoundMessages.NO_LIMIT</c>
+     * @param cursor the smallest message ID to return
+     * @return the messages posted by the given author in ascending order of their IDs
      */
-    private List<UserMessage> findByAuthor(String author) {
+    private List<UserMessage> findByAuthor(String author, int limit, long cursor) {
+        TreeSet<Long> messageIds = messagesByAuthor.get(author);
         List<UserMessage> foundMessages = new ArrayList<>();
-        for (UserMessage message : messages.values()) {
-            if (message.getAuthor().equals(author))
-                foundMessages.add(message);
+        if (messageIds == null)
+            return foundMessages;
+        for (Long messageId : messageIds.tailSet(cursor, true)) {
+            foundMessages.add(messages.get(messageId));
+            if (isPageFull(foundMessages, limit))
+                break;
+        }
+        return foundMessages;
+    }
+
+    /**
+     * Internal helper method containing the logic for looking up the messages with the most points.
+     *
+     * @param count the maximum number of messages to return
+     * @return the messages with the most points, ordered by their points in descending order
+     */
+    private List<UserMessage> findTop(int count) {
+        List<UserMessage> foundMessages = new ArrayList<>();
+        for (UserMessage message : messagesByPoints) {
+            if (foundMessages.size() >= count)
+                break;
+            foundMessages.add(message);
+        }
+        return foundMessages;
+    }
+
+    /**
+     * Internal helper method checking if enough messages have been looked up
+     * to fill a page and determine whether there is a next page.
+     *
+     * @param foundMessages the messages found so far
+     * @param limit         the page size or <c>FoundMessages.NO_LIMIT</c>
+     * @return true if no further messages need to be looked up, false otherwise
+     */
+    private boolean isPageFull(List<UserMessage> foundMessages, int limit) {
+        return limit > FoundMessages.NO_LIMIT && foundMessages.size() > limit;
+    }
+
+    /**
+     * Internal helper method creating the response for a page of found messages.
+     *
+     * @param foundMessages   the messages found, including at most one message exceeding the limit
+     * @param limit           the page size or <c>FoundMessages.NO_LIMIT</c>
+     * @param communicationId the id of the communication
+     * @return the response containing at most <c>limit</c> messages and the cursor of the next page
+     */
+    private FoundMessages page(List<UserMessage> foundMessages, int limit, long communicationId) {
+        long nextCursor = FoundMessages.NO_MORE_MESSAGES;
+        if (isPageFull(foundMessages, limit)) {
+            nextCursor = foundMessages.remove(limit).getMessageId();
         }
+        return new FoundMessages(snapshots(foundMessages), communicationId, nextCursor);
+    }
+
+    /**
+     * Internal helper method replacing found messages by immutable snapshots of their current
+     * version, so the response is not affected by changes made after the query.
+     *
+     * @param foundMessages the stored messages found
+     * @return the same list containing snapshots of the messages
+     */
+    private List<UserMessage> snapshots(List<UserMessage> foundMessages) {
+        foundMessages.replaceAll(UserMessage::snapshot);
         return foundMessages;
     }
 
+    /**
+     * Internal helper method registering a newly stored message in all secondary indexes.
+     *
+     * @param message the message which has just been added to <c>messages</c>
+     */
+    private void addToIndexes(UserMessage message) {
+        messagesByAuthor.computeIfAbsent(message.getAuthor(), author -> new TreeSet<>()).add(message.getMessageId());
+        messageTextsByAuthor.computeIfAbsent(message.getAuthor(), author -> new HashSet<>()).add(message.getPackedMessage());
+        String normalizedMessage = message.getNormalizedMessage().toString();
+        searchIndex.add(message.getMessageId(), message.getNormalizedAuthor(), normalizedMessage);
+        searchCache.invalidate(message.getNormalizedAuthor(), normalizedMessage);
+        messagesByPoints.add(message);
+    }
+
+    /**
+     * Internal helper method removing a message from all secondary indexes.
+     *
+     * @param message the message which is about to be removed from <c>messages</c>
+     */
+    private void removeFromIndexes(UserMessage message) {
+        TreeSet<Long> messageIds = messagesByAuthor.get(message.getAuthor());
+        if (messageIds != null) {
+            messageIds.remove(message.getMessageId());
+            if (messageIds.isEmpty())
+                messagesByAuthor.remove(message.getAuthor());
+        }
+        HashSet<PackedText> messageTexts = messageTextsByAuthor.get(message.getAuthor());
+        if (messageTexts != null) {
+            messageTexts.remove(message.getPackedMessage());
+            if (messageTexts.isEmpty())
+                messageTextsByAuthor.remove(message.getAuthor());
+        }
+        String normalizedMessage = message.getNormalizedMessage().toString();
+        searchIndex.remove(message.getMessageId(), message.getNormalizedAuthor(), normalizedMessage);
+        searchCache.invalidate(message.getNormalizedAuthor(), normalizedMessage);
+        messagesByPoints.remove(message);
+    }
+
+    /**
+     * Internal helper method changing the points of a stored message, keeping
+     * <c>messagesByPoints</c> in order.
+     *
+     * @param message the stored message
+     * @param delta   the number of points to add, negative to subtract points
+     */
+    private void addPoints(UserMessage message, int delta) {
+        messagesByPoints.remove(message);
+        message.setPoints(message.getPoints() + delta);
+        messagesByPoints.add(message);
+    }
+
+    /**
+     * Internal helper method checking if the given author has already stored a message
+     * with the given text.
+     *
+     * @param author the author of the message
+     * @param text   the message text
+     * @return true if an identical message of the author is stored, false otherwise
+     */
+    private boolean containsSameMessage(String author, PackedText text) {
+        HashSet<PackedText> messageTexts = messageTextsByAuthor.get(author);
+        return messageTexts != null && messageTexts.contains(text);
+    }
+
     /**
      * Internal helper method containing the logic for looking up messages
-     * by Author or by their message text.
+     * by Author or by their message text. If the search text is cached, the
+     * page is taken from the IDs of all matching messages in the search cache.
+     * Otherwise the messages are checked from the cursor on until the page is
+     * full, and the result is only cached if it is complete, i.e. the search
+     * started at the first page and checked all messages.
+     *
+     * At most one message more than the limit is looked up, which is used
+     * to determine the cursor of the next page.
      *
      * @param searchText the text to search for in the messages
-     * @return all messages containing the given Text
+     * @param limit      the page size or <c>FoundMessages.NO_LIMIT</c>
+     * @param cursor     the smallest message ID to return
+     * @return the messages containing the given Text in ascending order of their IDs
      */
-    private List<UserMessage> findByAuthorOrText(String searchText) {
+    private List<UserMessage> findByAuthorOrText(String searchText, int limit, long cursor) {
+        String normalizedSearchText = PackedText.toLowerCase(searchText);
         List<UserMessage> foundMessages = new ArrayList<>();
-        for (UserMessage message : messages.values()) {
-            if (message.getAuthor().toLowerCase().contains(searchText.toLowerCase()) ||
-                    message.getMessage().toLowerCase().contains(searchText.toLowerCase()))
+        long[] matchingIds = searchCache.get(normalizedSearchText);
+        if (matchingIds != null) {
+            int start = Arrays.binarySearch(matchingIds, cursor);
+            if (start < 0)
+                start = -start - 1;
+            for (int i = start; i < matchingIds.length && !isPageFull(foundMessages, limit); i++) {
+                foundMessages.add(messages.get(matchingIds[i]));
+            }
+            return foundMessages;
+        }
+
+        Iterator<UserMessage> candidates = candidatesByAuthorOrText(normalizedSearchText, cursor);
+        while (candidates.hasNext() && !isPageFull(foundMessages, limit)) {
+            UserMessage message = candidates.next();
+            if (matches(message, normalizedSearchText))
                 foundMessages.add(message);
         }
+        if (cursor <= FoundMessages.FIRST_PAGE && !candidates.hasNext()) {
+            matchingIds = new long[foundMessages.size()];
+            for (int i = 0; i < matchingIds.length; i++) {
+                matchingIds[i] = foundMessages.get(i).getMessageId();
+            }
+            searchCache.put(normalizedSearchText, matchingIds);
+        }
         return foundMessages;
     }
 
+    /**
+     * Internal helper method looking up the messages which might contain the search text
+     * in their author name or message text. If the search text is too short for the
+     * search index, all messages are candidates.
+     *
+     * @param normalizedSearchText the lowercased search text
+     * @param cursor               the smallest message ID to return
+     * @return iterator over the candidates in ascending order of their IDs
+     */
+    private Iterator<UserMessage> candidatesByAuthorOrText(String normalizedSearchText, long cursor) {
+        PrimitiveIterator.OfLong candidateIds = searchIndex.candidates(normalizedSearchText, cursor);
+        if (candidateIds == null)
+            return messages.iterator(cursor);
+        return new Iterator<UserMessage>() {
+            @Override
+            public boolean hasNext() {
+                return candidateIds.hasNext();
+            }
+
+            @Override
+            public UserMessage next() {
+                return messages.get(candidateIds.nextLong());
+            }
+        };
+    }
+
+    /**
+     * Internal helper method checking if the search text is contained in the author
+     * name or the message text, ignoring case.
+     *
+     * @param message              the message to check
+     * @param normalizedSearchText the lowercased search text
+     * @return true if the message matches, false otherwise
+     */
+    private boolean matches(UserMessage message, String normalizedSearchText) {
+        return message.getNormalizedAuthor().contains(normalizedSearchText) ||
+                message.getNormalizedMessage().contains(normalizedSearchText);
+    }
+
     /**
      * Internal helper method containing the logic for adding likes.
      *
@@ -255,15 +929,15 @@ public class MessageStore extends SimulatedActor {
      * @return true if successful, false otherwise
      */
     private boolean addLike(String clientName, long messageId) {
-        if (!messages.containsKey(messageId))
-            return false;
         UserMessage message = messages.get(messageId);
-        if (message.getLikes().contains(clientName))
+        if (message == null)
+            return false;
+        if (!message.getLikes().add(clientName))
             return false;
-        if (message.getDislikes().contains(clientName)) // either like or dislike, but not both
-            deleteLikeOrDislike(clientName, messageId, RemoveLikeOrDislike.Type.DISLIKE);
-        message.getLikes().add(clientName);
-        message.setPoints(message.getPoints() + 1);
+        int delta = 1;
+        if (message.getDislikes().remove(clientName)) // either like or dislike, but not both
+            delta++;
+        addPoints(message, delta);
         return true;
     }
 
@@ -275,19 +949,17 @@ public class MessageStore extends SimulatedActor {
      * @return true if successful, false otherwise
      */
     private boolean deleteLikeOrDislike(String clientName, long messageId, RemoveLikeOrDislike.Type type) {
-        if (!messages.containsKey(messageId))
-            return false;
         UserMessage message = messages.get(messageId);
+        if (message == null)
+            return false;
         if (type == RemoveLikeOrDislike.Type.LIKE) {
-            if (!message.getLikes().contains(clientName))
+            if (!message.getLikes().remove(clientName))
                 return false;
-            message.getLikes().remove(clientName);
-            message.setPoints(message.getPoints() - 1);
+            addPoints(message, -1);
         } else if (type == RemoveLikeOrDislike.Type.DISLIKE) {
-            if (!message.getDislikes().contains(clientName))
+            if (!message.getDislikes().remove(clientName))
                 return false;
-            message.getDislikes().remove(clientName);
-            message.setPoints(message.getPoints() + 1);
+            addPoints(message, 1);
         } else
             throw new NullPointerException("Unknown delete type.");
         return true;
@@ -301,16 +973,15 @@ public class MessageStore extends SimulatedActor {
      * @return true if successful, false otherwise
      */
     private boolean addDislike(String clientName, long messageId) {
-        if (!messages.containsKey(messageId))
-            return false;
         UserMessage message = messages.get(messageId);
-        if (message.getDislikes().contains(clientName))
+        if (message == null)
             return false;
-        if (message.getLikes().contains(clientName)) // either like or dislike, but not both
-            deleteLikeOrDislike(clientName, messageId, RemoveLikeOrDislike.Type.LIKE);
-
-        message.getDislikes().add(clientName);
-        message.setPoints(message.getPoints() - 1);
+        if (!message.getDislikes().add(clientName))
+            return false;
+        int delta = -1;
+        if (message.getLikes().remove(clientName)) // either like or dislike, but not both
+            delta--;
+        addPoints(message, delta);
 
         return true;
     }
@@ -323,10 +994,13 @@ public class MessageStore extends SimulatedActor {
      * @return true if successful, false otherwise
      */
     private boolean addReport(String clientName, String reportedClientName) {
-
-        HashSet<String> reporters = reports.getOrDefault(reportedClientName, new HashSet<>());
-        if (reporters.add(clientName)) {
-            reports.put(reportedClientName, reporters);
+        IntSet reporters = reportersOf(reportedClientName);
+        if (reporters.add(names.idOf(clientName))) {
+            if (reporters.size() > USER_BLOCKED_AT_COUNT && ban(reportedClientName)) {
+                for (MessageStore peer : peers) {
+                    send(peer, new BanUser(reportedClientName));
+                }
+            }
             return true;
         } else {
             // reporter already reported the user
@@ -334,6 +1008,25 @@ public class MessageStore extends SimulatedActor {
         }
     }
 
+    /**
+     * Internal helper method looking up the reports of a user.
+     *
+     * @param reportedClientName the name of the reported user
+     * @return the name IDs of all clients that have reported the user, created if there are no reports yet
+     */
+    private IntSet reportersOf(String reportedClientName) {
+        int reportedId = names.idOf(reportedClientName);
+        while (reports.size() <= reportedId) {
+            reports.add(null);
+        }
+        IntSet reporters = reports.get(reportedId);
+        if (reporters == null) {
+            reporters = new IntSet();
+            reports.set(reportedId, reporters);
+        }
+        return reporters;
+    }
+
     /**
      * Internal helper method containing the logic for adding reactions.
      *
@@ -342,18 +1035,10 @@ public class MessageStore extends SimulatedActor {
      * @return true if successful, false otherwise
      */
     private boolean addReaction(String clientName, long messageId, Reaction.Emoji reaction) {
-        if (!messages.containsKey(messageId))
-            return false;
         UserMessage message = messages.get(messageId);
-        Set<Reaction.Emoji> reactionsSet = new HashSet<>();
-        if (message.getReactions().containsKey(clientName))
-            if (message.getReactions().get(clientName).contains(reaction))
-                return false;
-            else
-                reactionsSet = message.getReactions().get(clientName);
-        reactionsSet.add(reaction);
-        message.getReactions().put(clientName, reactionsSet);
-        return true;
+        if (message == null)
+            return false;
+        return message.addReaction(clientName, reaction);
     }
 
     /**
@@ -365,20 +1050,19 @@ public class MessageStore extends SimulatedActor {
      * @return true if successful, false otherwise
      */
     private boolean editMessage(long messageId, String clientName, String newMessage) {
-        if (!messages.containsKey(messageId)) {
+        UserMessage message = messages.get(messageId);
+        if (message == null) {
             return false;
         }
-        for (UserMessage m : messages.values()) {
-            if (m.getAuthor().equals(clientName) && m.getMessage().equals(newMessage)) {
-                return false;
-            }
+        if (containsSameMessage(clientName, PackedText.of(newMessage))) {
+            return false;
         }
-        UserMessage message = messages.get(messageId);
         if (!clientName.equals(message.getAuthor())) {
             return false;
         }
+        removeFromIndexes(message);
         message.setMessage(newMessage);
-        messages.put(message.getMessageId(), message);
+        addToIndexes(message);
         return true;
     }
 
@@ -390,11 +1074,12 @@ public class MessageStore extends SimulatedActor {
      * @return true if successful, false otherwise
      */
     private boolean deleteMessage(String clientName, long messageId) {
-        if (!messages.containsKey(messageId))
-            return false;
         UserMessage message = messages.get(messageId);
+        if (message == null)
+            return false;
         if (!clientName.equals(message.getAuthor()))
             return false;
+        removeFromIndexes(message);
         messages.remove(messageId);
         return true;
     }
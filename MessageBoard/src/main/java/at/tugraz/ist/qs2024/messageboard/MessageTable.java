@@ -0,0 +1,168 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Table of user messages keyed by their message ID.
+ * <p>
+ * Message IDs are handed out sequentially by the message store, so instead of
+ * boxing IDs and hashing them, messages are kept in a dense array, where the
+ * message with ID <c>firstId + i</c> is stored at index i. Deleted messages
+ * leave an empty slot behind, IDs are never reused.
+ */
+final class MessageTable implements Iterable<UserMessage> {
+
+    /**
+     * Initial number of slots
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The ID of the message stored in the first slot
+     */
+    private final long firstId;
+
+    /**
+     * The slots, empty slots are null
+     */
+    private UserMessage[] slots;
+
+    /**
+     * Index after the highest slot ever used
+     */
+    private int end;
+
+    /**
+     * Number of messages stored
+     */
+    private int size;
+
+    /**
+     * Constructs a new empty table for message IDs starting at zero.
+     */
+    MessageTable() {
+        this(0);
+    }
+
+    /**
+     * Constructs a new empty table.
+     *
+     * @param firstId smallest message ID which can be stored in the table
+     */
+    MessageTable(long firstId) {
+        this.firstId = firstId;
+        this.slots = new UserMessage[INITIAL_CAPACITY];
+        this.end = 0;
+        this.size = 0;
+    }
+
+    /**
+     * @param messageId the id of the message
+     * @return the message with the given ID or null if there is no such message
+     */
+    UserMessage get(long messageId) {
+        long index = messageId - firstId;
+        if (index < 0 || index >= end)
+            return null;
+        return slots[(int) index];
+    }
+
+    /**
+     * @param messageId the id of the message
+     * @return true if a message with the given ID is stored, false otherwise
+     */
+    boolean containsKey(long messageId) {
+        return get(messageId) != null;
+    }
+
+    /**
+     * Stores the given message using its message ID as key, replacing a
+     * message with the same ID.
+     *
+     * @param message the message to store, its ID must not be smaller than the first ID of the table
+     */
+    void put(UserMessage message) {
+        long index = message.getMessageId() - firstId;
+        if (index < 0 || index >= Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Message ID out of range: " + message.getMessageId());
+        int i = (int) index;
+        if (i >= slots.length)
+            slots = Arrays.copyOf(slots, Math.max(i + 1, slots.length * 2));
+        if (slots[i] == null)
+            size++;
+        slots[i] = message;
+        if (i >= end)
+            end = i + 1;
+    }
+
+    /**
+     * Removes the message with the given ID.
+     *
+     * @param messageId the id of the message
+     * @return the removed message or null if there was no such message
+     */
+    UserMessage remove(long messageId) {
+        UserMessage message = get(messageId);
+        if (message != null) {
+            slots[(int) (messageId - firstId)] = null;
+            size--;
+        }
+        return message;
+    }
+
+    /**
+     * @return the number of messages stored
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no messages are stored, false otherwise
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return iterator over all stored messages in ascending order of their IDs
+     */
+    @Override
+    public Iterator<UserMessage> iterator() {
+        return iterator(firstId);
+    }
+
+    /**
+     * @param messageId smallest message ID to return
+     * @return iterator over all stored messages with an ID greater or equal to the given
+     * ID in ascending order of their IDs
+     */
+    Iterator<UserMessage> iterator(long messageId) {
+        long start = Math.min(Math.max(messageId - firstId, 0), end);
+        return new Iterator<UserMessage>() {
+            private int next = advance((int) start);
+
+            private int advance(int index) {
+                while (index < end && slots[index] == null)
+                    index++;
+                return index;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public UserMessage next() {
+                if (next >= end)
+                    throw new NoSuchElementException();
+                UserMessage message = slots[next];
+                next = advance(next + 1);
+                return message;
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary assigning dense int IDs to client names, so likes, dislikes, reactions
+ * and reports can refer to a client by an int instead of a string of their own.
+ * <p>
+ * IDs are assigned in the order the names are added, starting at zero. Names are never
+ * removed, so an ID stays valid for the lifetime of the dictionary. Every message store
+ * has its own dictionary.
+ * <p>
+ * Only the store adds names, but snapshots of stored messages look up names while the store
+ * keeps adding names (see {@link UserMessage#snapshot()}), so lookups are safe while a name
+ * is added: the IDs are kept in a concurrent map and the names in an array, which is replaced
+ * by a larger copy instead of being resized in place.
+ */
+final class NameDictionary {
+
+    /**
+     * Returned by {@link NameDictionary#find(String)} for unknown names
+     */
+    static final int UNKNOWN = -1;
+
+    /**
+     * The IDs of all names
+     */
+    private final Map<String, Integer> ids;
+
+    /**
+     * All names, indexed by their ID
+     */
+    private volatile String[] names;
+
+    /**
+     * Number of names
+     */
+    private int size;
+
+    NameDictionary() {
+        this.ids = new ConcurrentHashMap<>();
+        this.names = new String[16];
+    }
+
+    /**
+     * Looks up the ID of a name, adding the name if it is not known yet.
+     *
+     * @param name a client name, not null
+     * @return the ID of the name
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = size;
+            String[] current = names;
+            if (id == current.length)
+                current = Arrays.copyOf(current, current.length * 2);
+            current[id] = name;
+            names = current;
+            size++;
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Looks up the ID of a name without adding it.
+     *
+     * @param name a client name
+     * @return the ID of the name or <c>UNKNOWN</c>, if the name is not known
+     */
+    int find(String name) {
+        Integer id = name == null ? null : ids.get(name);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * @param id an ID assigned by this dictionary
+     * @return the name with the given ID
+     */
+    String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the number of names in the dictionary
+     */
+    int size() {
+        return size;
+    }
+}
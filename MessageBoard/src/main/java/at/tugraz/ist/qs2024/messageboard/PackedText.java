@@ -0,0 +1,181 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import java.util.Locale;
+
+/**
+ * Immutable text of a user message, which is packed into two longs if it is short
+ * enough to make storing and comparing message texts cheap.
+ * <p>
+ * Texts of at most <c>MAX_PACKED_LENGTH</c> characters from the Latin-1 range (which
+ * covers all texts accepted by workers, see <c>Worker.MAX_MESSAGE_LENGTH</c>) are stored
+ * one byte per character: characters 0 to 7 in <c>low</c>, characters 8 to 14 in the lower
+ * seven bytes of <c>high</c> and the length in the highest byte of <c>high</c>. Two packed
+ * texts are equal if both longs are equal. All other texts fall back to a string.
+ */
+final class PackedText {
+
+    /**
+     * Maximum number of characters which can be packed
+     */
+    static final int MAX_PACKED_LENGTH = 15;
+
+    /**
+     * Length stored in <c>high</c> for texts which are not packed
+     */
+    private static final long UNPACKED = 0xFFL << 56;
+
+    /**
+     * Text of messages without a text
+     */
+    private static final PackedText NULL = new PackedText(0, UNPACKED, null);
+
+    private final long low;
+
+    private final long high;
+
+    /**
+     * The text if it cannot be packed (null if it is packed)
+     */
+    private final String unpacked;
+
+    private PackedText(long low, long high, String unpacked) {
+        this.low = low;
+        this.high = high;
+        this.unpacked = unpacked;
+    }
+
+    /**
+     * @param text a message text, may be null
+     * @return the packed text, or a text falling back to the given string if it cannot be packed
+     */
+    static PackedText of(String text) {
+        if (text == null)
+            return NULL;
+        int length = text.length();
+        if (length > MAX_PACKED_LENGTH)
+            return new PackedText(0, UNPACKED, text);
+        long low = 0;
+        long high = (long) length << 56;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c > 0xFF)
+                return new PackedText(0, UNPACKED, text);
+            if (i < 8)
+                low |= (long) c << (i * 8);
+            else
+                high |= (long) c << ((i - 8) * 8);
+        }
+        return new PackedText(low, high, null);
+    }
+
+    /**
+     * @return true if the text is packed into the two longs, false if it falls back to a string
+     */
+    boolean isPacked() {
+        return high != UNPACKED;
+    }
+
+    /**
+     * @return the number of characters of the text
+     */
+    int length() {
+        return isPacked() ? (int) (high >>> 56) : unpacked.length();
+    }
+
+    /**
+     * @param index index of a character, less than {@link PackedText#length()}
+     * @return the character at the given index
+     */
+    char charAt(int index) {
+        if (!isPacked())
+            return unpacked.charAt(index);
+        long bits = index < 8 ? low >>> (index * 8) : high >>> ((index - 8) * 8);
+        return (char) (bits & 0xFF);
+    }
+
+    /**
+     * @return the text with all characters converted to lower case (see {@link PackedText#toLowerCase(String)}),
+     * which is packed if this text is packed
+     */
+    PackedText toLowerCase() {
+        if (!isPacked())
+            return unpacked == null ? this : PackedText.of(toLowerCase(unpacked));
+        long lowerLow = 0;
+        long lowerHigh = high & (0xFFL << 56);
+        for (int i = 0; i < length(); i++) {
+            // lower case letters of the Latin-1 range are in the Latin-1 range as well,
+            // and are the same as the ones of String.toLowerCase(Locale.ROOT)
+            long c = Character.toLowerCase(charAt(i));
+            if (i < 8)
+                lowerLow |= c << (i * 8);
+            else
+                lowerHigh |= c << ((i - 8) * 8);
+        }
+        return lowerLow == low && lowerHigh == high ? this : new PackedText(lowerLow, lowerHigh, null);
+    }
+
+    /**
+     * Converts a string to lower case independent of the default locale, which is used for
+     * all texts compared ignoring case, i.e. message texts, author names and search texts.
+     *
+     * @param text the string to convert
+     * @return the lowercased string
+     */
+    static String toLowerCase(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Checks if the given string occurs in the text without materializing the text.
+     *
+     * @param text the string to search for
+     * @return true if the text contains the given string, false otherwise
+     */
+    boolean contains(String text) {
+        if (!isPacked())
+            return unpacked != null && unpacked.contains(text);
+        int last = length() - text.length();
+        for (int start = 0; start <= last; start++) {
+            int i = 0;
+            while (i < text.length() && charAt(start + i) == text.charAt(i))
+                i++;
+            if (i == text.length())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Materializes the text.
+     *
+     * @return a new string for packed texts, the original string otherwise
+     */
+    @Override
+    public String toString() {
+        if (!isPacked())
+            return unpacked;
+        char[] chars = new char[length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = charAt(i);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof PackedText))
+            return false;
+        PackedText other = (PackedText) o;
+        return low == other.low && high == other.high
+                && (unpacked == null ? other.unpacked == null : unpacked.equals(other.unpacked));
+    }
+
+    @Override
+    public int hashCode() {
+        if (!isPacked())
+            return unpacked == null ? 0 : unpacked.hashCode();
+        return Long.hashCode(low * 31 + high);
+    }
+}
@@ -0,0 +1,169 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import at.tugraz.ist.qs2024.actorsystem.DeterministicChannel;
+import at.tugraz.ist.qs2024.actorsystem.Message;
+import at.tugraz.ist.qs2024.actorsystem.SimulatedActor;
+import at.tugraz.ist.qs2024.actorsystem.SimulatedActorSystem;
+import at.tugraz.ist.qs2024.messageboard.clientmessages.FoundMessages;
+import at.tugraz.ist.qs2024.messageboard.clientmessages.OperationFailed;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.MessageStoreMessage;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.RetrieveTopFromStore;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.SearchInStore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Helper which sends a query to all message store shards and forwards
+ * the merged result to the client.
+ * <p>
+ * For every shard a {@link WorkerHelper} is spawned, which sends the query
+ * to the shard and forwards the response to this actor, so resending messages
+ * works the same way as for requests handled by a single shard.
+ * Supported queries are <c>SearchInStore</c> and <c>RetrieveTopFromStore</c>.
+ */
+public class ScatterGatherHelper extends SimulatedActor {
+    /**
+     * The query which should be sent to all shards
+     */
+    private final MessageStoreMessage message;
+
+    /**
+     * The message store shards
+     */
+    private final List<SimulatedActor> shards;
+
+    /**
+     * The client to which the merged response should be forwarded
+     */
+    private final SimulatedActor client;
+
+    /**
+     * The actor system which is used to spawn the helpers and for stopping after forwarding the response
+     */
+    private final SimulatedActorSystem system;
+
+    /**
+     * The responses received from the shards so far
+     */
+    private final List<FoundMessages> responses;
+
+    /**
+     * Used to mark that the response has already been forwarded and further messages should be ignored
+     */
+    private boolean stopping;
+
+    /**
+     * Constructs a new ScatterGatherHelper object.
+     *
+     * @param shards  message store shards which receive the query
+     * @param client  client to which the merged response gets forwarded
+     * @param message the query to be sent to all shards
+     * @param system  actor system used to spawn helpers and stop this actor
+     */
+    public ScatterGatherHelper(List<SimulatedActor> shards, SimulatedActor client, MessageStoreMessage message,
+                               SimulatedActorSystem system) {
+        this.shards = shards;
+        this.client = client;
+        this.message = message;
+        this.system = system;
+        this.responses = new ArrayList<>(shards.size());
+        this.stopping = false;
+
+        // good connection between WorkerHelper and ScatterGatherHelper -> no delay
+        this.channel = new DeterministicChannel(0);
+    }
+
+    /**
+     * After spawning a helper is spawned for each shard, which sends its own copy of the query.
+     */
+    @Override
+    public void atStartUp() {
+        for (SimulatedActor shard : shards) {
+            system.spawn(new WorkerHelper(shard, this, copyOf(message), system));
+        }
+    }
+
+    /**
+     * Collects the responses of all shards. When all shards have responded,
+     * the merged response is forwarded to the client. If any shard fails,
+     * the whole query fails.
+     *
+     * @param message Non-null message received
+     */
+    @Override
+    public void receive(Message message) {
+        if (stopping)
+            return;
+        if (message instanceof FoundMessages) {
+            responses.add((FoundMessages) message);
+            if (responses.size() < shards.size())
+                return;
+            client.tell(merge());
+        } else {
+            client.tell(new OperationFailed(this.message.communicationId));
+        }
+        system.stop(this);
+        stopping = true;
+    }
+
+    /**
+     * Creates a copy of the query for one shard, as each helper sets itself as the store client.
+     *
+     * @param query the query
+     * @return a new message with the same content
+     */
+    private static MessageStoreMessage copyOf(MessageStoreMessage query) {
+        if (query instanceof SearchInStore) {
+            SearchInStore search = (SearchInStore) query;
+            return new SearchInStore(search.searchText, search.communicationId, search.limit, search.cursor);
+        } else if (query instanceof RetrieveTopFromStore) {
+            RetrieveTopFromStore retrieveTop = (RetrieveTopFromStore) query;
+            return new RetrieveTopFromStore(retrieveTop.count, retrieveTop.communicationId);
+        }
+        throw new IllegalArgumentException("Query cannot be sent to all shards: " + query.getClass().getSimpleName());
+    }
+
+    /**
+     * Merges the responses of all shards into a single response.
+     *
+     * @return the response to forward to the client
+     */
+    private FoundMessages merge() {
+        List<UserMessage> merged = new ArrayList<>();
+        for (FoundMessages response : responses) {
+            merged.addAll(response.messages);
+        }
+        if (message instanceof RetrieveTopFromStore) {
+            int count = ((RetrieveTopFromStore) message).count;
+            merged.sort(MessageStore.BY_POINTS);
+            return new FoundMessages(new ArrayList<>(merged.subList(0, Math.max(0, Math.min(count, merged.size())))),
+                    message.communicationId);
+        }
+
+        // pages of all shards are merged by ID, the next page starts at the smallest
+        // ID not returned, either because a shard has more messages or because the
+        // merged messages exceed the limit
+        int limit = ((SearchInStore) message).limit;
+        merged.sort(Comparator.comparingLong(UserMessage::getMessageId));
+        long nextCursor = FoundMessages.NO_MORE_MESSAGES;
+        for (FoundMessages response : responses) {
+            if (response.nextCursor != FoundMessages.NO_MORE_MESSAGES &&
+                    (nextCursor == FoundMessages.NO_MORE_MESSAGES || response.nextCursor < nextCursor))
+                nextCursor = response.nextCursor;
+        }
+        if (limit > FoundMessages.NO_LIMIT && merged.size() > limit) {
+            long firstExceeding = merged.get(limit).getMessageId();
+            if (nextCursor == FoundMessages.NO_MORE_MESSAGES || firstExceeding < nextCursor)
+                nextCursor = firstExceeding;
+        }
+        List<UserMessage> page = new ArrayList<>();
+        for (UserMessage userMessage : merged) {
+            if (nextCursor != FoundMessages.NO_MORE_MESSAGES && userMessage.getMessageId() >= nextCursor)
+                break;
+            page.add(userMessage);
+        }
+        return new FoundMessages(page, message.communicationId, nextCursor);
+    }
+}
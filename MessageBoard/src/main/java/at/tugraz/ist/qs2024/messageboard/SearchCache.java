@@ -0,0 +1,172 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of search results of a message store, keyed by the lowercased
+ * search text. A result is the ascending array of the IDs of all messages matching the search
+ * text, the messages themselves are looked up when a page is returned, so changing the points
+ * or likes of a message does not affect cached results.
+ * <p>
+ * The cache is bounded by the number of results and by the total number of cached IDs, the
+ * least recently used results are evicted first. Whenever a message is added or removed or its
+ * text changes, only the results for search texts contained in its author name or text are
+ * invalidated (see {@link SearchCache#invalidate(String, String)}).
+ * <p>
+ * Hits, misses, evictions and invalidations are counted for monitoring.
+ */
+public class SearchCache {
+
+    /**
+     * Default maximum number of cached results
+     */
+    public static final int DEFAULT_MAX_RESULTS = 256;
+
+    /**
+     * Default maximum number of IDs of all cached results
+     */
+    public static final int DEFAULT_MAX_IDS = 64 * 1024;
+
+    private final int maxResults;
+
+    private final int maxIds;
+
+    /**
+     * Cached results in access order, the least recently used first
+     */
+    private final LinkedHashMap<String, long[]> results;
+
+    /**
+     * Number of IDs of all cached results
+     */
+    private int cachedIds;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long invalidations;
+
+    /**
+     * Constructs a new SearchCache object with the default bounds.
+     */
+    SearchCache() {
+        this(DEFAULT_MAX_RESULTS, DEFAULT_MAX_IDS);
+    }
+
+    /**
+     * Constructs a new SearchCache object.
+     *
+     * @param maxResults maximum number of cached results, 0 disables the cache
+     * @param maxIds     maximum number of IDs of all cached results
+     */
+    SearchCache(int maxResults, int maxIds) {
+        this.maxResults = maxResults;
+        this.maxIds = maxIds;
+        this.results = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Looks up a cached result and marks it as most recently used.
+     *
+     * @param normalizedSearchText the lowercased search text
+     * @return the IDs of all matching messages in ascending order or null, if the result is not cached
+     */
+    long[] get(String normalizedSearchText) {
+        long[] messageIds = results.get(normalizedSearchText);
+        if (messageIds == null)
+            misses++;
+        else
+            hits++;
+        return messageIds;
+    }
+
+    /**
+     * Caches a result, evicting the least recently used results if the cache is full.
+     * Results exceeding the maximum number of IDs are not cached.
+     *
+     * @param normalizedSearchText the lowercased search text
+     * @param messageIds           the IDs of all matching messages in ascending order
+     */
+    void put(String normalizedSearchText, long[] messageIds) {
+        if (maxResults == 0 || messageIds.length > maxIds)
+            return;
+        long[] previous = results.put(normalizedSearchText, messageIds);
+        cachedIds += messageIds.length - (previous == null ? 0 : previous.length);
+        Iterator<long[]> eldest = results.values().iterator();
+        while (results.size() > maxResults || cachedIds > maxIds) {
+            cachedIds -= eldest.next().length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Invalidates all results which may change because a message has been added or removed
+     * or its text has been changed, i.e. the results for all search texts contained in the
+     * author name or text of the message. For a changed text, this method has to be called
+     * for the old and the new text.
+     *
+     * @param normalizedAuthor the lowercased author of the message
+     * @param normalizedText   the lowercased text of the message
+     */
+    void invalidate(String normalizedAuthor, String normalizedText) {
+        Iterator<Map.Entry<String, long[]>> it = results.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, long[]> result = it.next();
+            String searchText = result.getKey();
+            if (normalizedAuthor.contains(searchText) || normalizedText.contains(searchText)) {
+                cachedIds -= result.getValue().length;
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * @return the number of searches answered from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of searches which had to be executed
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of searches answered from the cache, 0 if there have been no searches
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the number of results evicted to keep the cache within its bounds
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of results invalidated by changed messages
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+}
@@ -0,0 +1,60 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import at.tugraz.ist.qs2024.actorsystem.Message;
+import at.tugraz.ist.qs2024.actorsystem.SimulatedActor;
+import at.tugraz.ist.qs2024.actorsystem.SimulatedActorSystem;
+import at.tugraz.ist.qs2024.messageboard.clientmessages.OperationFailed;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.MessageStoreMessage;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.StoreBatch;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.StoreBatchReply;
+
+import java.util.List;
+
+/**
+ * Helper which sends a batch of operations to the message store and
+ * forwards the reply to each operation to the client of the operation.
+ * Resending works the same way as for a {@link WorkerHelper}, if the
+ * store does not respond at all, every operation of the batch fails.
+ */
+public class StoreBatchHelper extends WorkerHelper {
+    /**
+     * The clients to which the replies should be forwarded, in the order of the operations of the batch
+     */
+    private final List<SimulatedActor> clients;
+
+    /**
+     * Constructs a new StoreBatchHelper object.
+     *
+     * @param messageStore message store which receives the batch from helper
+     * @param clients      clients to which the replies get forwarded, one per operation of the batch
+     * @param batch        the batch to be sent to the message store
+     * @param system       actor system used to stop the helper
+     */
+    public StoreBatchHelper(SimulatedActor messageStore, List<SimulatedActor> clients, StoreBatch batch,
+                            SimulatedActorSystem system) {
+        super(messageStore, null, batch, system);
+        this.clients = clients;
+    }
+
+    /**
+     * Splits the reply of the store and forwards the reply to each operation
+     * to its client.
+     *
+     * @param response the StoreBatchReply of the store or an OperationFailed message, if the store did not respond
+     */
+    @Override
+    protected void forward(Message response) {
+        List<MessageStoreMessage> operations = ((StoreBatch) message).operations;
+        if (response instanceof StoreBatchReply) {
+            List<Message> replies = ((StoreBatchReply) response).replies;
+            for (int i = 0; i < operations.size(); i++) {
+                if (replies.get(i) != null)
+                    clients.get(i).tell(replies.get(i));
+            }
+        } else {
+            for (int i = 0; i < operations.size(); i++) {
+                clients.get(i).tell(new OperationFailed(operations.get(i).communicationId));
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.MessageStoreMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Files a persistent message store keeps in its directory: write-ahead log segments
+ * and snapshots, both numbered by a generation.
+ * <p>
+ * The snapshot of generation g contains the state of the store when the log segment of
+ * generation g was started, so the state is restored by loading the newest snapshot and
+ * replaying the log segments from its generation on. If there is no snapshot, all log
+ * segments are replayed.
+ * <p>
+ * Taking a snapshot starts a new log segment right away, while the snapshot is encoded,
+ * written, synced and renamed to its final name by a background thread. Afterwards the
+ * older snapshots and log segments are deleted, as they are not needed for recovery anymore.
+ * Files which cannot be deleted yet, e.g. a snapshot which is still mapped on a platform
+ * not deleting mapped files, are kept and deleted after a later snapshot.
+ * If writing a snapshot fails, the older files are kept and the failure is reported when
+ * the files are closed, unless a later snapshot has been written successfully.
+ */
+class StorePersistence {
+
+    /**
+     * Default number of changes after which a snapshot is taken
+     */
+    static final int DEFAULT_SNAPSHOT_INTERVAL = 10000;
+
+    private static final String LOG_SUFFIX = ".wal";
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    /**
+     * Directory containing the files
+     */
+    private final Path directory;
+
+    /**
+     * Prefix of the names of all files of the store
+     */
+    private final String storeName;
+
+    /**
+     * Generation of the current log segment
+     */
+    private long generation;
+
+    /**
+     * The current log segment (null if the files are only read)
+     */
+    private WriteAheadLog writeAheadLog;
+
+    /**
+     * Writes snapshots in the background (null until the first snapshot is taken)
+     */
+    private ExecutorService snapshotWriter;
+
+    /**
+     * Failure of writing the last snapshot (null if it has been written or none has been taken)
+     */
+    private volatile IOException snapshotFailure;
+
+    /**
+     * Constructs a new StorePersistence object.
+     *
+     * @param directory existing directory containing the files
+     * @param storeName prefix of the names of all files of the store
+     */
+    StorePersistence(Path directory, String storeName) {
+        this.directory = directory;
+        this.storeName = storeName;
+    }
+
+    /**
+     * Loads the newest valid snapshot.
+     *
+     * @return the snapshot or null, if there is no valid snapshot
+     * @throws IOException if the directory cannot be read
+     */
+    StoreSnapshot loadSnapshot() throws IOException {
+        for (long snapshotGeneration : generations(SNAPSHOT_SUFFIX).descendingSet()) {
+            try {
+                StoreSnapshot snapshot = StoreSnapshot.load(file(snapshotGeneration, SNAPSHOT_SUFFIX));
+                generation = snapshotGeneration;
+                return snapshot;
+            } catch (IOException e) {
+                // fall back to the previous snapshot
+            }
+        }
+        generation = 0;
+        return null;
+    }
+
+    /**
+     * Reads the log segments to replay after the snapshot returned by {@link StorePersistence#loadSnapshot()}.
+     * Unless the files are only read, the last segment is opened to append new changes, after discarding an
+     * incomplete tail.
+     *
+     * @param readOnly true if the files must not be changed
+     * @return the logged changes in the order they have been applied
+     * @throws IOException if the files cannot be read or opened
+     */
+    List<MessageStoreMessage> recoverLog(boolean readOnly) throws IOException {
+        List<MessageStoreMessage> changes = new ArrayList<>();
+        TreeSet<Long> logGenerations = generations(LOG_SUFFIX);
+        long lastGeneration = logGenerations.isEmpty() ? generation : Math.max(generation, logGenerations.last());
+        for (long logGeneration : logGenerations.tailSet(generation, true)) {
+            if (logGeneration == lastGeneration && !readOnly)
+                break;
+            changes.addAll(WriteAheadLog.read(file(logGeneration, LOG_SUFFIX)));
+        }
+        generation = lastGeneration;
+        if (!readOnly) {
+            writeAheadLog = new WriteAheadLog(file(generation, LOG_SUFFIX));
+            changes.addAll(writeAheadLog.recover());
+        }
+        return changes;
+    }
+
+    /**
+     * Buffers a change until the next commit.
+     *
+     * @param change a store message which has been applied successfully
+     */
+    void append(MessageStoreMessage change) {
+        writeAheadLog.append(change);
+    }
+
+    /**
+     * Writes and syncs all changes appended since the last commit.
+     */
+    void commit() {
+        writeAheadLog.commit();
+    }
+
+    /**
+     * Starts a new log segment and encodes and writes the given snapshot in the background.
+     * The snapshot has to contain the state after all changes appended so far.
+     *
+     * @param snapshot the captured state of the store, see {@link StoreSnapshot#capture}
+     */
+    void takeSnapshot(StoreSnapshot.CapturedState snapshot) {
+        try {
+            writeAheadLog.close();
+            generation++;
+            writeAheadLog = new WriteAheadLog(file(generation, LOG_SUFFIX));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (snapshotWriter == null) {
+            snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, storeName + "-snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        long snapshotGeneration = generation;
+        snapshotWriter.execute(() -> writeSnapshot(snapshotGeneration, snapshot));
+    }
+
+    /**
+     * Closes the current log segment and waits until all snapshots have been written.
+     *
+     * @throws IOException if the log cannot be closed or the last snapshot could not be written
+     */
+    void close() throws IOException {
+        if (writeAheadLog != null)
+            writeAheadLog.close();
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdown();
+            try {
+                snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        IOException failure = snapshotFailure;
+        if (failure != null)
+            throw new IOException("Writing the last snapshot failed, the log segments have been kept", failure);
+    }
+
+
+    /**
+     * Encodes a snapshot, writes it to a temporary file, syncs it and renames it, so only complete
+     * snapshots are found on recovery. Afterwards the files of older generations are deleted.
+     * A failure is recorded in <c>snapshotFailure</c>.
+     */
+    private void writeSnapshot(long snapshotGeneration, StoreSnapshot.CapturedState state) {
+        try {
+            byte[] snapshot = state.encode();
+            Path target = file(snapshotGeneration, SNAPSHOT_SUFFIX);
+            Path temporary = directory.resolve(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            snapshotFailure = null;
+            deleteOlderFiles(snapshotGeneration, SNAPSHOT_SUFFIX);
+            deleteOlderFiles(snapshotGeneration, LOG_SUFFIX);
+        } catch (IOException e) {
+            // the log segments are kept, so the state can still be recovered
+            snapshotFailure = e;
+        }
+    }
+
+    /**
+     * Deletes the files with the given suffix of all generations before the given one, as far as
+     * possible. The snapshot of the given generation has been written, so files which cannot be
+     * deleted are left for a later snapshot instead of failing.
+     */
+    private void deleteOlderFiles(long snapshotGeneration, String suffix) {
+        TreeSet<Long> olderGenerations;
+        try {
+            olderGenerations = generations(suffix);
+        } catch (IOException e) {
+            return;
+        }
+        for (long older : olderGenerations.headSet(snapshotGeneration)) {
+            try {
+                Files.deleteIfExists(file(older, suffix));
+            } catch (IOException e) {
+                // e.g. the file is still mapped, it is deleted after the next snapshot
+            }
+        }
+    }
+
+    private Path file(long fileGeneration, String suffix) {
+        return directory.resolve(storeName + "-" + fileGeneration + suffix);
+    }
+
+    /**
+     * @param suffix the suffix of the files
+     * @return the generations of all files of the store with the given suffix
+     */
+    private TreeSet<Long> generations(String suffix) throws IOException {
+        TreeSet<Long> fileGenerations = new TreeSet<>();
+        String prefix = storeName + "-";
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .forEach(name -> {
+                        try {
+                            fileGenerations.add(Long.parseLong(name.substring(prefix.length(),
+                                    name.length() - suffix.length())));
+                        } catch (NumberFormatException e) {
+                            // not a file of this store
+                        }
+                    });
+        }
+        return fileGenerations;
+    }
+}
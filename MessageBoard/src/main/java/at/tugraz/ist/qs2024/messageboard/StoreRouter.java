@@ -0,0 +1,156 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import at.tugraz.ist.qs2024.actorsystem.SimulatedActor;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which message store shard is responsible for a message store message.
+ * <p>
+ * Each shard owns a disjoint range of <c>SHARD_ID_RANGE</c> message IDs, starting
+ * at <c>shardIndex * SHARD_ID_RANGE</c>. New messages are stored by the shard
+ * chosen by the hash of their author, so all messages of an author end up in
+ * the same shard. Hence, requests referring to a message ID are routed by the ID
+ * range, requests referring to an author (including reports of a user) by the
+ * author hash and searches have to be sent to all shards.
+ * <p>
+ * Each shard may have read replicas. Queries are spread over the replicas of a
+ * shard based on the communication ID, all other requests are sent to the shard itself.
+ */
+class StoreRouter {
+
+    /**
+     * Number of message IDs owned by each shard
+     */
+    static final long SHARD_ID_RANGE = 1L << 40;
+
+    /**
+     * The message store shards, the shard with index i owns the IDs starting at
+     * i * <c>SHARD_ID_RANGE</c>
+     */
+    private final List<SimulatedActor> shards;
+
+    /**
+     * The read replicas, the list with index i contains the replicas of shard i
+     */
+    private final List<List<SimulatedActor>> replicas;
+
+    /**
+     * Constructs a new StoreRouter object for shards without read replicas.
+     *
+     * @param shards the message store shards, must not be empty
+     */
+    StoreRouter(List<? extends SimulatedActor> shards) {
+        this(shards, Collections.nCopies(shards.size(), Collections.emptyList()));
+    }
+
+    /**
+     * Constructs a new StoreRouter object.
+     *
+     * @param shards   the message store shards, must not be empty
+     * @param replicas for each shard the list of its read replicas, which may be empty
+     */
+    StoreRouter(List<? extends SimulatedActor> shards, List<? extends List<? extends SimulatedActor>> replicas) {
+        if (shards.isEmpty())
+            throw new IllegalArgumentException("At least one shard is required");
+        this.shards = new ArrayList<>(shards);
+        this.replicas = new ArrayList<>(replicas.size());
+        for (List<? extends SimulatedActor> shardReplicas : replicas) {
+            this.replicas.add(new ArrayList<>(shardReplicas));
+        }
+    }
+
+    /**
+     * Selects for each shard the store answering a query sent to all shards.
+     *
+     * @param communicationId the id of the communication
+     * @return one store per shard, in the order of the shards
+     */
+    List<SimulatedActor> getReadStores(long communicationId) {
+        List<SimulatedActor> readStores = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            readStores.add(readStoreOfShard(i, communicationId));
+        }
+        return readStores;
+    }
+
+    /**
+     * @param shardIndex      index of a shard
+     * @param communicationId the id of the communication
+     * @return a read replica of the shard or the shard itself, if it has no replicas
+     */
+    private SimulatedActor readStoreOfShard(int shardIndex, long communicationId) {
+        List<SimulatedActor> shardReplicas = replicas.get(shardIndex);
+        if (shardReplicas.isEmpty())
+            return shards.get(shardIndex);
+        return shardReplicas.get((int) Math.floorMod(communicationId, (long) shardReplicas.size()));
+    }
+
+    /**
+     * @param shardIndex index of a shard
+     * @return the smallest message ID owned by the shard
+     */
+    static long firstIdOfShard(int shardIndex) {
+        return shardIndex * SHARD_ID_RANGE;
+    }
+
+    /**
+     * @param author name of an author
+     * @return the shard storing all messages of the given author
+     */
+    SimulatedActor shardForAuthor(String author) {
+        return shards.get(shardIndexForAuthor(author));
+    }
+
+    private int shardIndexForAuthor(String author) {
+        return Math.floorMod(author.hashCode(), shards.size());
+    }
+
+    /**
+     * @param messageId id of a message
+     * @return the shard owning the given message ID, IDs not owned by any shard are
+     * routed to the first shard, which does not know them either
+     */
+    SimulatedActor shardForMessage(long messageId) {
+        long shardIndex = messageId / SHARD_ID_RANGE;
+        if (messageId < 0 || shardIndex >= shards.size())
+            return shards.get(0);
+        return shards.get((int) shardIndex);
+    }
+
+    /**
+     * Selects the shard a message has to be sent to.
+     *
+     * @param message the message for the message store
+     * @return the responsible shard or one of its replicas or null, if the message has to be sent to all shards
+     */
+    SimulatedActor route(MessageStoreMessage message) {
+        if (message instanceof RetrieveFromStore)
+            return readStoreOfShard(shardIndexForAuthor(((RetrieveFromStore) message).author),
+                    message.communicationId);
+        if (message instanceof SearchInStore || message instanceof RetrieveTopFromStore)
+            return shards.size() == 1 ? readStoreOfShard(0, message.communicationId) : null;
+        if (shards.size() == 1)
+            return shards.get(0);
+        if (message instanceof UpdateMessageStore)
+            return shardForAuthor(((UpdateMessageStore) message).message.getAuthor());
+        if (message instanceof AddReport)
+            return shardForAuthor(((AddReport) message).reportedClientName);
+        if (message instanceof AddLike)
+            return shardForMessage(((AddLike) message).messageId);
+        if (message instanceof AddDislike)
+            return shardForMessage(((AddDislike) message).messageId);
+        if (message instanceof DeleteLikeOrDislike)
+            return shardForMessage(((DeleteLikeOrDislike) message).messageId);
+        if (message instanceof AddReaction)
+            return shardForMessage(((AddReaction) message).messageId);
+        if (message instanceof EditMessage)
+            return shardForMessage(((EditMessage) message).messageId);
+        if (message instanceof DeleteMessage)
+            return shardForMessage(((DeleteMessage) message).messageId);
+        return null;
+    }
+}
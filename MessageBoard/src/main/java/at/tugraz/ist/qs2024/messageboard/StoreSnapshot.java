@@ -0,0 +1,311 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary image of the state of a message store: all messages including
+ * their likes, dislikes and reactions, all reports, the banned users and the next
+ * message ID.
+ * <p>
+ * Snapshots are loaded from a memory-mapped file. Only the fields needed to
+ * rebuild the indexes of the store (ID, points, author and text) are read right away,
+ * the likes, dislikes and reactions of a message are read from the mapped file when
+ * they are accessed for the first time. When the next snapshot is taken, the bytes of
+ * interactions which have not been accessed are copied from the mapped file.
+ * <p>
+ * Layout (big-endian): magic, version, next message ID, number of messages, the messages,
+ * number of reported users, the reports, number of banned users, the banned users and a
+ * CRC32 checksum of everything before. Messages and strings are encoded by {@link MessageCodec}:
+ * a message is stored like {@link MessageCodec#encodeUserMessage}, but its likes, dislikes
+ * and reactions are prefixed with their length in bytes, so they can be skipped.
+ */
+class StoreSnapshot {
+
+    private static final int MAGIC = 0x4d42534e;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The next message ID to be assigned by the store
+     */
+    final long currentId;
+
+    /**
+     * All stored messages in ascending order of their IDs
+     */
+    final List<UserMessage> messages;
+
+    /**
+     * All reports, keyed by the name of the reported user
+     */
+    final Map<String, HashSet<String>> reports;
+
+    /**
+     * Names of all banned users
+     */
+    final Set<String> bannedUsers;
+
+    private StoreSnapshot(long currentId, List<UserMessage> messages, Map<String, HashSet<String>> reports,
+                          Set<String> bannedUsers) {
+        this.currentId = currentId;
+        this.messages = messages;
+        this.reports = reports;
+        this.bannedUsers = bannedUsers;
+    }
+
+    /**
+     * Captures the state of a message store, which is encoded later by {@link CapturedState#encode()},
+     * e.g. in a background thread while the store keeps changing. Capturing still visits every message
+     * on the thread of the store, so it takes time linear in the number of messages, but it does not
+     * encode anything. Each message is either an immutable snapshot of the message (see
+     * {@link UserMessage#snapshot()}) or, if its likes, dislikes and reactions have not been loaded from
+     * the previous snapshot yet, a copy of its ID, points, author and text together with the encoded
+     * interactions, which are copied as they are. The reports and banned users are copied.
+     * <p>
+     * Encoded interactions still referring to the memory-mapped file of the loaded snapshot are copied
+     * to the heap first, which is only done by the first capture after loading. Afterwards no message
+     * refers to the file anymore, so it can be deleted once the new snapshot has been written.
+     *
+     * @param currentId   the next message ID to be assigned by the store
+     * @param messages    all stored messages
+     * @param names       the dictionary of the client names used by the store
+     * @param reports     all reports, indexed by the name ID of the reported user
+     * @param bannedUsers name IDs of all banned users
+     * @return the captured state
+     */
+    static CapturedState capture(long currentId, MessageTable messages, NameDictionary names, List<IntSet> reports,
+                                 BitSet bannedUsers) {
+        List<UserMessage> capturedMessages = new ArrayList<>(messages.size());
+        List<ByteBuffer> encodedInteractions = new ArrayList<>(messages.size());
+        for (UserMessage message : messages) {
+            ByteBuffer encoded = message.getEncodedInteractions();
+            if (encoded != null && encoded.isDirect()) {
+                ByteBuffer copy = ByteBuffer.allocate(encoded.remaining());
+                copy.put(encoded);
+                copy.flip();
+                message.loadInteractionsLazily(copy);
+                encoded = copy.duplicate();
+            }
+            if (encoded == null) {
+                capturedMessages.add(message.snapshot());
+            } else {
+                UserMessage header = new UserMessage(message.getAuthor(), message.getMessage());
+                header.setMessageId(message.getMessageId());
+                header.setPoints(message.getPoints());
+                capturedMessages.add(header);
+            }
+            encodedInteractions.add(encoded);
+        }
+        List<IntSet> capturedReports = new ArrayList<>(reports.size());
+        for (IntSet reporters : reports) {
+            capturedReports.add(reporters == null ? null : new IntSet(reporters));
+        }
+        return new CapturedState(currentId, capturedMessages, encodedInteractions, names, capturedReports,
+                (BitSet) bannedUsers.clone());
+    }
+
+    /**
+     * Loads a snapshot from a memory-mapped file. The encoded interactions of the messages
+     * refer to the file until they are accessed or the next snapshot is captured.
+     *
+     * @param file the snapshot file
+     * @return the snapshot, the interactions of its messages are loaded lazily
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    static StoreSnapshot load(Path file) throws IOException {
+        MappedByteBuffer content;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int end = content.limit() - 4;
+        if (end < 24 || content.getInt(0) != MAGIC || content.getInt(4) != VERSION)
+            throw new IOException("Not a message store snapshot: " + file);
+        CRC32 crc = new CRC32();
+        ByteBuffer checked = content.duplicate();
+        byte[] chunk = new byte[64 * 1024];
+        while (checked.position() < end) {
+            int length = Math.min(chunk.length, end - checked.position());
+            checked.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        if ((int) crc.getValue() != content.getInt(end))
+            throw new IOException("Corrupted message store snapshot: " + file);
+
+        ByteBuffer in = content.duplicate();
+        in.position(8);
+        MessageCodec codec = new MessageCodec();
+        long currentId = in.getLong();
+        int count = in.getInt();
+        List<UserMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            UserMessage message = codec.decodeUserMessageHeader(in);
+            int length = in.getInt();
+            ByteBuffer interactions = in.duplicate();
+            interactions.limit(in.position() + length);
+            message.loadInteractionsLazily(interactions.slice());
+            in.position(in.position() + length);
+            messages.add(message);
+        }
+        int reportedUsers = in.getInt();
+        Map<String, HashSet<String>> reports = new HashMap<>();
+        for (int i = 0; i < reportedUsers; i++) {
+            String reportedClientName = codec.readString(in);
+            HashSet<String> reporters = new LinkedHashSet<>();
+            codec.readStrings(in, reporters);
+            reports.put(reportedClientName, reporters);
+        }
+        Set<String> bannedUsers = new LinkedHashSet<>();
+        codec.readStrings(in, bannedUsers);
+        return new StoreSnapshot(currentId, messages, reports, bannedUsers);
+    }
+
+    /**
+     * State of a message store captured by {@link StoreSnapshot#capture}, which does not change anymore.
+     */
+    static final class CapturedState {
+
+        private final long currentId;
+
+        /**
+         * Snapshots of the messages or, for messages with encoded interactions, copies without interactions
+         */
+        private final List<UserMessage> messages;
+
+        /**
+         * Encoded interactions of each message, null for messages whose interactions have been loaded
+         */
+        private final List<ByteBuffer> encodedInteractions;
+
+        /**
+         * The dictionary of the store, which is safe to read while the store adds names
+         */
+        private final NameDictionary names;
+
+        private final List<IntSet> reports;
+
+        private final BitSet bannedUsers;
+
+        private CapturedState(long currentId, List<UserMessage> messages, List<ByteBuffer> encodedInteractions,
+                              NameDictionary names, List<IntSet> reports, BitSet bannedUsers) {
+            this.currentId = currentId;
+            this.messages = messages;
+            this.encodedInteractions = encodedInteractions;
+            this.names = names;
+            this.reports = reports;
+            this.bannedUsers = bannedUsers;
+        }
+
+        /**
+         * @return the encoded snapshot
+         */
+        byte[] encode() {
+            MessageCodec codec = new MessageCodec();
+            Output out = new Output();
+            out.write(buffer -> {
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putLong(currentId);
+                buffer.putInt(messages.size());
+            });
+            for (int i = 0; i < messages.size(); i++) {
+                UserMessage message = messages.get(i);
+                ByteBuffer encoded = encodedInteractions.get(i);
+                out.write(buffer -> {
+                    codec.encodeUserMessageHeader(message, buffer);
+                    if (encoded != null) {
+                        buffer.putInt(encoded.remaining());
+                        buffer.put(encoded.duplicate());
+                    } else {
+                        int lengthPosition = buffer.position();
+                        buffer.putInt(0);
+                        codec.encodeInteractions(message, buffer);
+                        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+                    }
+                });
+            }
+            int reportedUsers = 0;
+            for (IntSet reporters : reports) {
+                if (reporters != null)
+                    reportedUsers++;
+            }
+            int reportedCount = reportedUsers;
+            out.write(buffer -> buffer.putInt(reportedCount));
+            for (int reportedId = 0; reportedId < reports.size(); reportedId++) {
+                IntSet reporters = reports.get(reportedId);
+                if (reporters == null)
+                    continue;
+                String reportedClientName = names.nameOf(reportedId);
+                out.write(buffer -> {
+                    MessageCodec.writeString(reportedClientName, buffer);
+                    buffer.putInt(reporters.size());
+                    for (PrimitiveIterator.OfInt it = reporters.iterator(); it.hasNext(); ) {
+                        MessageCodec.writeString(names.nameOf(it.nextInt()), buffer);
+                    }
+                });
+            }
+            out.write(buffer -> buffer.putInt(bannedUsers.cardinality()));
+            for (int bannedId = bannedUsers.nextSetBit(0); bannedId >= 0;
+                 bannedId = bannedUsers.nextSetBit(bannedId + 1)) {
+                String bannedClientName = names.nameOf(bannedId);
+                out.write(buffer -> MessageCodec.writeString(bannedClientName, buffer));
+            }
+            return out.toByteArrayWithChecksum();
+        }
+    }
+
+    /**
+     * Growing buffer the snapshot is encoded into.
+     */
+    private static final class Output {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        /**
+         * Runs the given writer. If the buffer overflows, the buffer is replaced by a larger copy
+         * of the bytes written before and the writer is run again.
+         */
+        void write(Consumer<ByteBuffer> writer) {
+            int start = buffer.position();
+            while (true) {
+                try {
+                    writer.accept(buffer);
+                    return;
+                } catch (BufferOverflowException e) {
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.position(0).limit(start);
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+            }
+        }
+
+        /**
+         * @return the written bytes followed by their CRC32 checksum
+         */
+        byte[] toByteArrayWithChecksum() {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            int checksum = (int) crc.getValue();
+            write(buffer -> buffer.putInt(checksum));
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+}
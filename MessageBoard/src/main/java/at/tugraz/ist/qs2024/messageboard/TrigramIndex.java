@@ -0,0 +1,286 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+
+/**
+ * Case-insensitive inverted index mapping each trigram (sequence of three
+ * characters) of the lowercased author name and message text of a user message
+ * to the IDs of all messages containing it. Callers pass in the already
+ * lowercased strings (see {@link UserMessage#getNormalizedMessage()}).
+ * <p>
+ * The index is only used to narrow down the candidates of a substring search.
+ * A message containing the search text in its author name or message text
+ * contains all trigrams of the search text, but the opposite is not true,
+ * so callers still have to verify each candidate.
+ * <p>
+ * Each posting list is a sorted array of message IDs. New messages get the highest ID
+ * so far and are appended. Removing a message only marks its entries, so an edit, which
+ * removes and adds the trigrams of the same message, finds most of its entries again.
+ * Searches intersect the posting lists lazily in ascending order of the IDs, starting
+ * with the shortest list, so a search stopping after one page does not visit all candidates.
+ */
+class TrigramIndex {
+
+    /**
+     * Number of characters per indexed gram
+     */
+    static final int GRAM_LENGTH = 3;
+
+    /**
+     * Posting lists, the key in the dictionary corresponds to a trigram and the
+     * value contains the IDs of all messages containing that trigram.
+     */
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    /**
+     * Adds the trigrams of the given message to the index.
+     *
+     * @param messageId the id of the message
+     * @param author    the lowercased author of the message
+     * @param text      the lowercased message text
+     */
+    void add(long messageId, String author, String text) {
+        for (String gram : gramsOf(author, text)) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(messageId);
+        }
+    }
+
+    /**
+     * Removes the trigrams of the given message from the index. The author and
+     * text have to be the same as the ones passed to {@link TrigramIndex#add(long, String, String)}.
+     *
+     * @param messageId the id of the message
+     * @param author    the lowercased author of the message
+     * @param text      the lowercased message text
+     */
+    void remove(long messageId, String author, String text) {
+        for (String gram : gramsOf(author, text)) {
+            Postings messageIds = postings.get(gram);
+            if (messageIds != null) {
+                messageIds.remove(messageId);
+                if (messageIds.isEmpty())
+                    postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Looks up the messages which might contain the given search text. The candidates
+     * are determined while iterating, the index must not be changed in the meantime.
+     *
+     * @param normalizedSearchText the lowercased search text
+     * @param cursor               the smallest message ID to return
+     * @return iterator over the IDs of the candidate messages in ascending order or null,
+     * if the search text is too short to be looked up in the index
+     */
+    PrimitiveIterator.OfLong candidates(String normalizedSearchText, long cursor) {
+        if (normalizedSearchText.length() < GRAM_LENGTH)
+            return null;
+        List<Postings> lists = new ArrayList<>();
+        Postings smallest = null;
+        for (int i = 0; i + GRAM_LENGTH <= normalizedSearchText.length(); i++) {
+            Postings messageIds = postings.get(normalizedSearchText.substring(i, i + GRAM_LENGTH));
+            if (messageIds == null)
+                messageIds = Postings.EMPTY;
+            if (!lists.contains(messageIds))
+                lists.add(messageIds);
+            if (smallest == null || messageIds.size < smallest.size)
+                smallest = messageIds;
+        }
+        lists.remove(smallest);
+        return new Intersection(smallest, lists.toArray(new Postings[0]), cursor);
+    }
+
+    /**
+     * Collects the distinct trigrams of the author and text.
+     *
+     * @param author the lowercased author of the message
+     * @param text   the lowercased message text
+     * @return set of all trigrams of both strings
+     */
+    private static Set<String> gramsOf(String author, String text) {
+        Set<String> grams = new HashSet<>();
+        addGrams(grams, author);
+        addGrams(grams, text);
+        return grams;
+    }
+
+    private static void addGrams(Set<String> grams, String normalized) {
+        for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+            grams.add(normalized.substring(i, i + GRAM_LENGTH));
+        }
+    }
+
+    /**
+     * Sorted posting list of message IDs. Entries of removed IDs are kept as their complement,
+     * which is negative, until more than half of the entries have been removed.
+     */
+    private static final class Postings {
+
+        private static final Postings EMPTY = new Postings();
+
+        private static final int INITIAL_CAPACITY = 4;
+
+        /**
+         * The entries in ascending order of their IDs
+         */
+        private long[] entries = new long[INITIAL_CAPACITY];
+
+        /**
+         * Number of entries, including the ones of removed IDs
+         */
+        private int length;
+
+        /**
+         * Number of IDs in the list
+         */
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(long messageId) {
+            int index = length == 0 || idOf(entries[length - 1]) < messageId ? -length - 1 : indexOf(messageId, 0);
+            if (index >= 0) {
+                if (entries[index] < 0) {
+                    entries[index] = messageId;
+                    size++;
+                }
+                return;
+            }
+            index = -index - 1;
+            if (length == entries.length) {
+                long[] newEntries = new long[entries.length * 2];
+                System.arraycopy(entries, 0, newEntries, 0, length);
+                entries = newEntries;
+            }
+            System.arraycopy(entries, index, entries, index + 1, length - index);
+            entries[index] = messageId;
+            length++;
+            size++;
+        }
+
+        void remove(long messageId) {
+            int index = indexOf(messageId, 0);
+            if (index < 0 || entries[index] < 0)
+                return;
+            entries[index] = ~messageId;
+            size--;
+            if (size < length / 2)
+                compact();
+        }
+
+        /**
+         * Drops the entries of removed IDs.
+         */
+        private void compact() {
+            int newLength = 0;
+            for (int i = 0; i < length; i++) {
+                if (entries[i] >= 0)
+                    entries[newLength++] = entries[i];
+            }
+            length = newLength;
+        }
+
+        /**
+         * Binary search for the entry of the given ID, which may be removed.
+         *
+         * @param messageId the ID to look for
+         * @param from      index of the first entry to search
+         * @return the index of the entry or <c>-(insertion point) - 1</c>, if there is none
+         */
+        int indexOf(long messageId, int from) {
+            int low = from;
+            int high = length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long id = idOf(entries[mid]);
+                if (id < messageId)
+                    low = mid + 1;
+                else if (id > messageId)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -low - 1;
+        }
+
+        private static long idOf(long entry) {
+            return entry < 0 ? ~entry : entry;
+        }
+    }
+
+    /**
+     * Iterator over the IDs contained in the shortest posting list and all other posting lists
+     * of a search. As the IDs are visited in ascending order, the other lists are only searched
+     * behind the position of the previous candidate.
+     */
+    private static final class Intersection implements PrimitiveIterator.OfLong {
+
+        private final Postings smallest;
+
+        private final Postings[] others;
+
+        /**
+         * Position of the last candidate in each of the other lists
+         */
+        private final int[] positions;
+
+        /**
+         * Index of the next candidate in <c>smallest</c>
+         */
+        private int next;
+
+        Intersection(Postings smallest, Postings[] others, long cursor) {
+            this.smallest = smallest;
+            this.others = others;
+            this.positions = new int[others.length];
+            int start = smallest.indexOf(cursor, 0);
+            this.next = advance(start < 0 ? -start - 1 : start);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < smallest.length;
+        }
+
+        @Override
+        public long nextLong() {
+            if (next >= smallest.length)
+                throw new NoSuchElementException();
+            long messageId = smallest.entries[next];
+            next = advance(next + 1);
+            return messageId;
+        }
+
+        /**
+         * @return the index of the first entry from the given one on, which is contained in all lists
+         */
+        private int advance(int index) {
+            for (; index < smallest.length; index++) {
+                long messageId = smallest.entries[index];
+                if (messageId >= 0 && inOthers(messageId))
+                    return index;
+            }
+            return index;
+        }
+
+        private boolean inOthers(long messageId) {
+            for (int i = 0; i < others.length; i++) {
+                int position = others[i].indexOf(messageId, positions[i]);
+                positions[i] = position < 0 ? -position - 1 : position;
+                if (position < 0 || others[i].entries[position] < 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package at.tugraz.ist.qs2024.messageboard;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -21,26 +25,55 @@ public class UserMessage {
     public final static long NEW_ID = -1;
 
     /**
-     * The author of the message
+     * All possible reactions, the ordinal of an emoji is its bit in the reaction bitmask
      */
-    private final String author;
+    private final static Reaction.Emoji[] EMOJIS = Reaction.Emoji.values();
 
     /**
-     * The message posted by the author
+     * The author of the message, replaced by the instance of the name in the dictionary
+     * of the store when the message is stored
      */
-    private String message;
+    private String author;
+
+    /**
+     * The message posted by the author, packed into two longs if it is short enough.
+     * A string is only materialized when the message is read by {@link UserMessage#getMessage()}.
+     */
+    private PackedText message;
+
+    /**
+     * Lowercased author, which is computed on first use and used for
+     * case-insensitive searches.
+     */
+    private String normalizedAuthor;
+
+    /**
+     * Lowercased message text, which is computed on first use and used for
+     * case-insensitive searches. It is packed like the text itself, so caching
+     * it does not keep a string per stored message.
+     */
+    private PackedText normalizedMessage;
+
+    /**
+     * Dictionary of the names of the people who interacted with the message. Once the message
+     * is stored, it is the dictionary of the store. Before, the message has its own dictionary,
+     * which is created when the first interaction is added (null until then).
+     */
+    private NameDictionary names;
 
     /**
      * Likes for the message (initially empty).
-     * The strings in the list are names of people who like the message.
+     * The elements are the IDs of the names of the people who like the message,
+     * kept in the order in which the likes were added.
      */
-    private final List<String> likes;
+    private VersionedIntSet likes;
 
     /**
      * Dislikes for the message (initially empty).
-     * The strings in the list are names of people who dislike the message.
+     * The elements are the IDs of the names of the people who dislike the message,
+     * kept in the order in which the dislikes were added.
      */
-    private final List<String> dislikes;
+    private VersionedIntSet dislikes;
 
     /**
      * The points of the message.
@@ -51,10 +84,17 @@ public class UserMessage {
     private int points = 0;
 
     /**
-     * Reactions or emojis for the message (initially empty).
-     * The strings in the list are names of people who dislike the message.
+     * Reactions or emojis for the message. The elements are the IDs of the names of the people
+     * who reacted to the message, the value of an element is the bitmask of the emojis the person
+     * added. Created when the first reaction is added (null until then).
      */
-    private final Map<String, Set<Reaction.Emoji>> reactions;
+    private VersionedIntSet reactions;
+
+    /**
+     * Number of people who added each emoji, indexed by the ordinal of the emoji
+     * (null until the first reaction is added)
+     */
+    private int[] reactionCounts;
 
     /**
      * Invariant, only NEW and positive IDs are used.
@@ -64,6 +104,29 @@ public class UserMessage {
      */
     private long messageId;
 
+    /**
+     * Likes, dislikes and reactions of a message loaded from a snapshot, encoded by
+     * {@link MessageCodec#encodeInteractions}, which are decoded on first access
+     * (null if they are already present)
+     */
+    private ByteBuffer encodedInteractions;
+
+    /**
+     * Number of changes made to the message
+     */
+    private long version;
+
+    /**
+     * Immutable snapshot of the current version of the message, which is handed out to
+     * readers (null if it has not been requested since the last change)
+     */
+    private UserMessage snapshot;
+
+    /**
+     * True if this message is a snapshot, which cannot be changed
+     */
+    private boolean frozen;
+
     /**
      * Constructs the new UserMessage object
      *
@@ -71,11 +134,14 @@ public class UserMessage {
      * @param message posted message string
      */
     public UserMessage(String author, String message) {
+        this(author, message, new VersionedIntSet(), new VersionedIntSet());
+    }
+
+    private UserMessage(String author, String message, VersionedIntSet likes, VersionedIntSet dislikes) {
         this.author = author;
-        this.message = message;
-        this.likes = new ArrayList<>();
-        this.dislikes = new ArrayList<>();
-        this.reactions = new HashMap<>();
+        this.message = PackedText.of(message);
+        this.likes = likes;
+        this.dislikes = dislikes;
         this.messageId = NEW_ID;
     }
 
@@ -87,8 +153,9 @@ public class UserMessage {
      */
     @Override
     public String toString() {
-        return author + ": " + message + ", liked by : " + likes.stream().sorted().collect(
-                Collectors.joining(",")) + ", disliked by : " + dislikes.stream().sorted().collect(
+        loadInteractions();
+        return author + ": " + message + ", liked by : " + new NameSet(false).stream().sorted().collect(
+                Collectors.joining(",")) + ", disliked by : " + new NameSet(true).stream().sorted().collect(
                 Collectors.joining(","))
                 + ", points: " + points;
     }
@@ -98,19 +165,54 @@ public class UserMessage {
     }
 
     public String getMessage() {
-        return message;
+        return message.toString();
     }
 
     public void setMessage(String message) {
-        this.message = message;
+        changed();
+        this.message = PackedText.of(message);
+        this.normalizedMessage = null;
+    }
+
+    /**
+     * @return the message text without materializing it as string
+     */
+    PackedText getPackedMessage() {
+        return message;
+    }
+
+    /**
+     * @return the lowercased author of the message
+     */
+    String getNormalizedAuthor() {
+        if (normalizedAuthor == null)
+            normalizedAuthor = PackedText.toLowerCase(author);
+        return normalizedAuthor;
     }
 
-    public List<String> getLikes() {
-        return likes;
+    /**
+     * @return the lowercased message text
+     */
+    PackedText getNormalizedMessage() {
+        if (normalizedMessage == null)
+            normalizedMessage = message.toLowerCase();
+        return normalizedMessage;
+    }
+
+    /**
+     * @return modifiable view of the names of the people who like the message
+     */
+    public Set<String> getLikes() {
+        loadInteractions();
+        return new NameSet(false);
     }
 
-    public List<String> getDislikes() {
-        return dislikes;
+    /**
+     * @return modifiable view of the names of the people who dislike the message
+     */
+    public Set<String> getDislikes() {
+        loadInteractions();
+        return new NameSet(true);
     }
 
     public int getPoints() {
@@ -118,11 +220,77 @@ public class UserMessage {
     }
 
     public void setPoints(int newPoints) {
+        changed();
         points = newPoints;
     }
 
-    public Map<String, Set<Reaction.Emoji>> getReactions() {
-        return reactions;
+    /**
+     * @return read-only map of the reaction bitmasks, keyed by the names of the reacting people,
+     * where bit i is set if the person added the emoji with ordinal i
+     */
+    public Map<String, Byte> getReactions() {
+        loadInteractions();
+        return new ReactionMap();
+    }
+
+    /**
+     * @param clientName name of a person
+     * @return all reactions the given person added to the message
+     */
+    public Set<Reaction.Emoji> getReactions(String clientName) {
+        loadInteractions();
+        Set<Reaction.Emoji> clientReactions = EnumSet.noneOf(Reaction.Emoji.class);
+        byte mask = reactionMaskOf(clientName);
+        for (Reaction.Emoji emoji : EMOJIS) {
+            if ((mask & (1 << emoji.ordinal())) != 0)
+                clientReactions.add(emoji);
+        }
+        return clientReactions;
+    }
+
+    /**
+     * Adds a reaction of the given person to the message, unless the person already
+     * added the same reaction before.
+     *
+     * @param clientName name of the person who reacts to the message
+     * @param reaction   the reaction
+     * @return true if the reaction was added, false if it was already present
+     */
+    public boolean addReaction(String clientName, Reaction.Emoji reaction) {
+        loadInteractions();
+        byte mask = reactionMaskOf(clientName);
+        byte bit = (byte) (1 << reaction.ordinal());
+        if ((mask & bit) != 0)
+            return false;
+        changed();
+        if (reactions == null) {
+            reactions = new VersionedIntSet();
+            reactionCounts = new int[EMOJIS.length];
+        }
+        reactions.put(names().idOf(clientName), (byte) (mask | bit));
+        reactionCounts[reaction.ordinal()]++;
+        return true;
+    }
+
+    /**
+     * @param reaction the reaction
+     * @return number of people who added the given reaction to the message
+     */
+    public int getReactionCount(Reaction.Emoji reaction) {
+        loadInteractions();
+        return reactionCounts == null ? 0 : reactionCounts[reaction.ordinal()];
+    }
+
+    /**
+     * @return number of people who added each reaction to the message
+     */
+    public Map<Reaction.Emoji, Integer> getReactionCounts() {
+        loadInteractions();
+        Map<Reaction.Emoji, Integer> counts = new EnumMap<>(Reaction.Emoji.class);
+        for (Reaction.Emoji emoji : EMOJIS) {
+            counts.put(emoji, getReactionCount(emoji));
+        }
+        return counts;
     }
 
     public long getMessageId() {
@@ -130,6 +298,290 @@ public class UserMessage {
     }
 
     public void setMessageId(long messageId) {
+        changed();
         this.messageId = messageId;
     }
+
+    /**
+     * @return the number of changes made to the message, snapshots keep the version of the
+     * message at the time they were taken
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return true if this message is an immutable snapshot, false otherwise
+     */
+    public boolean isSnapshot() {
+        return frozen;
+    }
+
+    /**
+     * Returns an immutable snapshot of the current version of the message, which is not
+     * affected by later changes. The snapshot is created once per version and holds versions
+     * of the sets of likes, dislikes and reactions, which share their elements with the sets
+     * of this message (see {@link VersionedIntSet}). So neither taking a snapshot nor changing
+     * the message afterwards copies the sets and the writer never has to wait for readers of
+     * a snapshot.
+     *
+     * @return the snapshot, which throws an <c>UnsupportedOperationException</c> if it is changed
+     */
+    UserMessage snapshot() {
+        if (frozen)
+            return this;
+        loadInteractions();
+        if (snapshot == null) {
+            UserMessage frozenVersion = new UserMessage(author, null, likes.freeze(), dislikes.freeze());
+            frozenVersion.message = message;
+            frozenVersion.normalizedAuthor = normalizedAuthor;
+            frozenVersion.normalizedMessage = normalizedMessage;
+            frozenVersion.names = names;
+            if (reactions != null) {
+                frozenVersion.reactions = reactions.freeze();
+                frozenVersion.reactionCounts = reactionCounts.clone();
+            }
+            frozenVersion.points = points;
+            frozenVersion.messageId = messageId;
+            frozenVersion.version = version;
+            frozenVersion.frozen = true;
+            snapshot = frozenVersion;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Creates a deep copy of this message, which can be changed independently of this message.
+     *
+     * @return a new UserMessage object with the same content
+     */
+    UserMessage copy() {
+        loadInteractions();
+        UserMessage copy = new UserMessage(author, null, new VersionedIntSet(likes), new VersionedIntSet(dislikes));
+        copy.message = message;
+        copy.names = names;
+        if (reactions != null) {
+            copy.reactions = new VersionedIntSet(reactions);
+            copy.reactionCounts = reactionCounts.clone();
+        }
+        copy.points = points;
+        copy.messageId = messageId;
+        return copy;
+    }
+
+    /**
+     * Defers restoring the likes, dislikes and reactions of the message until they are
+     * accessed for the first time. The points are not changed by restoring them.
+     *
+     * @param encodedInteractions the interactions encoded by {@link MessageCodec#encodeInteractions},
+     *                            which must not change anymore
+     */
+    void loadInteractionsLazily(ByteBuffer encodedInteractions) {
+        this.encodedInteractions = encodedInteractions;
+    }
+
+    /**
+     * @return the encoded likes, dislikes and reactions passed to {@link UserMessage#loadInteractionsLazily},
+     * if they have not been accessed yet, null otherwise
+     */
+    ByteBuffer getEncodedInteractions() {
+        return encodedInteractions == null ? null : encodedInteractions.duplicate();
+    }
+
+    /**
+     * Switches the message to the dictionary of the store it is stored in. The names of the
+     * people who interacted with the message so far are added to the dictionary of the store
+     * and the author is replaced by the instance of the name in that dictionary, so stored
+     * messages do not keep copies of names.
+     *
+     * @param storeNames the dictionary of the store
+     */
+    void useDictionary(NameDictionary storeNames) {
+        if (author != null)
+            author = storeNames.nameOf(storeNames.idOf(author));
+        if (names == storeNames)
+            return;
+        if (names != null) {
+            // interactions which are still to be loaded are added using the new dictionary
+            likes = translate(likes, storeNames);
+            dislikes = translate(dislikes, storeNames);
+            if (reactions != null)
+                reactions = translate(reactions, storeNames);
+        }
+        names = storeNames;
+    }
+
+    /**
+     * @return a new set of the IDs in the given dictionary of the names of the given IDs, with the
+     * same values and in the same order
+     */
+    private VersionedIntSet translate(VersionedIntSet clientIds, NameDictionary storeNames) {
+        VersionedIntSet translated = new VersionedIntSet();
+        for (PrimitiveIterator.OfInt it = clientIds.iterator(); it.hasNext(); ) {
+            int clientId = it.nextInt();
+            translated.put(storeNames.idOf(names.nameOf(clientId)), clientIds.get(clientId));
+        }
+        return translated;
+    }
+
+    /**
+     * Prepares the message for a change: snapshots cannot be changed and the current
+     * snapshot is dropped.
+     */
+    private void changed() {
+        if (frozen)
+            throw new UnsupportedOperationException("Snapshots of messages cannot be changed");
+        snapshot = null;
+        version++;
+    }
+
+    /**
+     * @return the bitmask of the reactions the given person added to the message
+     */
+    private byte reactionMaskOf(String clientName) {
+        if (reactions == null)
+            return 0;
+        return reactions.get(names.find(clientName));
+    }
+
+    /**
+     * @return the dictionary of the message, which is created if the message has none yet
+     */
+    private NameDictionary names() {
+        if (names == null)
+            names = new NameDictionary();
+        return names;
+    }
+
+    /**
+     * Modifiable view of the likes or dislikes as set of names in the order they were added.
+     * The set of IDs is looked up on every access, as it is replaced when the message switches
+     * to the dictionary of a store.
+     */
+    private final class NameSet extends AbstractSet<String> {
+
+        private final boolean dislikeSet;
+
+        NameSet(boolean dislikeSet) {
+            this.dislikeSet = dislikeSet;
+        }
+
+        private VersionedIntSet clientIds() {
+            return dislikeSet ? dislikes : likes;
+        }
+
+        @Override
+        public int size() {
+            return clientIds().size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && names != null && clientIds().contains(names.find((String) o));
+        }
+
+        @Override
+        public boolean add(String name) {
+            if (contains(name))
+                return false;
+            changed();
+            return clientIds().add(names().idOf(name));
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o))
+                return false;
+            changed();
+            return clientIds().remove(names.find((String) o));
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            PrimitiveIterator.OfInt ids = clientIds().iterator();
+            return new Iterator<String>() {
+
+                private String current;
+
+                @Override
+                public boolean hasNext() {
+                    return ids.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    current = names.nameOf(ids.nextInt());
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    if (current == null || !NameSet.this.remove(current))
+                        throw new IllegalStateException();
+                    current = null;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only view of the reaction bitmasks as map keyed by names. The set of IDs is looked up
+     * on every access, as it is replaced when the message switches to the dictionary of a store.
+     */
+    private final class ReactionMap extends AbstractMap<String, Byte> {
+
+        @Override
+        public int size() {
+            return reactions == null ? 0 : reactions.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && reactionMaskOf((String) key) != 0;
+        }
+
+        @Override
+        public Byte get(Object key) {
+            byte mask = key instanceof String ? reactionMaskOf((String) key) : 0;
+            return mask == 0 ? null : mask;
+        }
+
+        @Override
+        public Set<Entry<String, Byte>> entrySet() {
+            return new AbstractSet<Entry<String, Byte>>() {
+
+                @Override
+                public int size() {
+                    return ReactionMap.this.size();
+                }
+
+                @Override
+                public Iterator<Entry<String, Byte>> iterator() {
+                    VersionedIntSet clientIds = reactions == null ? new VersionedIntSet() : reactions;
+                    PrimitiveIterator.OfInt ids = clientIds.iterator();
+                    return new Iterator<Entry<String, Byte>>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return ids.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Byte> next() {
+                            int clientId = ids.nextInt();
+                            return new SimpleImmutableEntry<>(names.nameOf(clientId), clientIds.get(clientId));
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private void loadInteractions() {
+        if (encodedInteractions != null) {
+            ByteBuffer encoded = encodedInteractions.duplicate();
+            encodedInteractions = null;
+            new MessageCodec().decodeInteractions(encoded, this);
+        }
+    }
 }
@@ -0,0 +1,356 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Set of non-negative ints, e.g. IDs of a {@link NameDictionary}, which keeps the order in which
+ * the elements were added and hands out immutable versions of itself without copying the elements.
+ * <p>
+ * The elements are appended to an array of entries. Removing an element does not move any entries,
+ * it stamps the entry of the element with the current stamp instead. A version taken by
+ * {@link VersionedIntSet#freeze()} shares the array with the set and only sees the entries in front of
+ * its length, which had not been removed when it was taken. Changing the set afterwards only appends
+ * entries behind that length and stamps entries with a later stamp, so a version is never affected
+ * by later changes, even if it is read by another thread while the set is changed. When the array
+ * is full, the entries still in the set are copied into a new array, which drops the entries of
+ * removed elements and leaves the array of older versions untouched.
+ * <p>
+ * The set finds its elements in an open-addressing hash table of entry indexes. A version only
+ * builds such a table when it is searched for the first time.
+ * <p>
+ * Each element can carry a byte value, which makes the set a map from ints to bytes, e.g. from
+ * the IDs of people to the bitmasks of their reactions. Changing the value of an element removes
+ * its entry and appends a new one, so versions keep the values they have seen.
+ */
+final class VersionedIntSet {
+
+    private static final int FREE = -1;
+
+    /**
+     * Stamp of the entries of elements which are still in the set
+     */
+    private static final int PRESENT = 0;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Elements in the order they were added, including removed elements
+     * (null while the set has never contained elements)
+     */
+    private int[] elements;
+
+    /**
+     * Stamp of the removal of each entry, <c>PRESENT</c> for entries of elements still in the set
+     */
+    private int[] removedAt;
+
+    /**
+     * Value of each entry, null while no value other than 0 has been put into the set
+     */
+    private byte[] values;
+
+    /**
+     * Number of entries
+     */
+    private int length;
+
+    /**
+     * Number of elements
+     */
+    private int size;
+
+    /**
+     * Stamp of the next removal, which is increased whenever a version is taken after a removal
+     */
+    private int stamp = 1;
+
+    /**
+     * True if an entry has been removed since the last version was taken
+     */
+    private boolean removedSinceFreeze;
+
+    /**
+     * Entries removed with a stamp up to this one are not visible, entries removed later are
+     * visible. For versions this is the stamp at the time the version was taken.
+     */
+    private final int visibleStamp;
+
+    /**
+     * Hash table of the indexes of the visible entries. Versions build it lazily on the first
+     * lookup, possibly in several threads, so it is only published once it is complete.
+     */
+    private volatile int[] table;
+
+    /**
+     * Constructs a new empty set.
+     */
+    VersionedIntSet() {
+        this.visibleStamp = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Constructs a new set containing the elements of the given set or version in the same order.
+     *
+     * @param other the set to copy
+     */
+    VersionedIntSet(VersionedIntSet other) {
+        this();
+        for (int index = 0; index < other.length; index++) {
+            if (other.isVisible(other.removedAt[index]))
+                append(other.elements[index], other.values == null ? 0 : other.values[index]);
+        }
+    }
+
+    private VersionedIntSet(int[] elements, int[] removedAt, byte[] values, int length, int size, int visibleStamp) {
+        this.elements = elements;
+        this.removedAt = removedAt;
+        this.values = values;
+        this.length = length;
+        this.size = size;
+        this.visibleStamp = visibleStamp;
+    }
+
+    /**
+     * @return true if this is an immutable version of a set, false otherwise
+     */
+    boolean isFrozen() {
+        return visibleStamp != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Takes an immutable version of the set, which is not affected by later changes of the set.
+     *
+     * @return the version
+     */
+    VersionedIntSet freeze() {
+        if (isFrozen())
+            return this;
+        if (removedSinceFreeze) {
+            if (stamp == Integer.MAX_VALUE - 1)
+                copyEntries(elements.length); // starts over with fresh stamps
+            else
+                stamp++;
+            removedSinceFreeze = false;
+        }
+        return new VersionedIntSet(elements, removedAt, values, length, size, stamp - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param value a non-negative int
+     * @return true if the set contains the given value, false otherwise
+     */
+    boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * Adds the given value as last element with the byte value 0, unless the set already contains it.
+     *
+     * @param value a non-negative int
+     * @return true if the value was added, false if the set already contained it
+     */
+    boolean add(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative value " + value);
+        checkNotFrozen();
+        if (indexOf(value) >= 0)
+            return false;
+        append(value, (byte) 0);
+        return true;
+    }
+
+    /**
+     * @param value a non-negative int
+     * @return true if the value was removed, false if the set did not contain it
+     */
+    boolean remove(int value) {
+        checkNotFrozen();
+        int index = indexOf(value);
+        if (index < 0)
+            return false;
+        removeEntry(index);
+        return true;
+    }
+
+    /**
+     * @param value a non-negative int
+     * @return the byte value of the given element, 0 if the set does not contain it
+     */
+    byte get(int value) {
+        int index = indexOf(value);
+        return index < 0 || values == null ? 0 : values[index];
+    }
+
+    /**
+     * Sets the byte value of the given element. Elements which are not contained yet and elements
+     * whose value changes become the last element.
+     *
+     * @param value      a non-negative int
+     * @param entryValue the new byte value of the element
+     * @return true if the set was changed, false if it already contained the element with the given byte value
+     */
+    boolean put(int value, byte entryValue) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative value " + value);
+        checkNotFrozen();
+        int index = indexOf(value);
+        if (index >= 0) {
+            if ((values == null ? 0 : values[index]) == entryValue)
+                return false;
+            removeEntry(index);
+        }
+        append(value, entryValue);
+        return true;
+    }
+
+    /**
+     * @return an iterator over the elements in the order they were added
+     */
+    PrimitiveIterator.OfInt iterator() {
+        int[] entries = elements;
+        int[] stamps = removedAt;
+        int end = length;
+        return new PrimitiveIterator.OfInt() {
+
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next >= end)
+                    throw new NoSuchElementException();
+                int value = entries[next];
+                next = advance(next + 1);
+                return value;
+            }
+
+            private int advance(int index) {
+                while (index < end && !isVisible(stamps[index]))
+                    index++;
+                return index;
+            }
+        };
+    }
+
+    private void append(int value, byte entryValue) {
+        if (elements == null || length == elements.length)
+            copyEntries(Math.max(INITIAL_CAPACITY, (size + 1) * 2));
+        int index = length++;
+        elements[index] = value;
+        removedAt[index] = PRESENT;
+        if (entryValue != 0 && values == null)
+            values = new byte[elements.length];
+        if (values != null)
+            values[index] = entryValue;
+        int[] slots = table;
+        slots[freeSlotOf(slots, value)] = index;
+        size++;
+    }
+
+    private void removeEntry(int index) {
+        // the entry stays in the table, lookups skip it as it is not visible anymore
+        removedAt[index] = stamp;
+        removedSinceFreeze = true;
+        size--;
+    }
+
+    private boolean isVisible(int removalStamp) {
+        return removalStamp == PRESENT || removalStamp > visibleStamp;
+    }
+
+    private void checkNotFrozen() {
+        if (isFrozen())
+            throw new UnsupportedOperationException("Versions of sets cannot be changed");
+    }
+
+    /**
+     * @return the index of the visible entry of the given value, -1 if there is none
+     */
+    private int indexOf(int value) {
+        if (value < 0 || length == 0)
+            return -1;
+        int[] slots = table;
+        if (slots == null) {
+            // only versions build their table lazily
+            slots = buildTable(Math.max(INITIAL_CAPACITY, size * 2));
+            table = slots;
+        }
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+        while (slots[slot] != FREE) {
+            int index = slots[slot];
+            if (elements[index] == value && isVisible(removedAt[index]))
+                return index;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the visible entries into new arrays, so arrays shared with versions are never
+     * changed in front of their length, and rebuilds the table for the new arrays.
+     */
+    private void copyEntries(int capacity) {
+        int[] newElements = new int[capacity];
+        int[] newRemovedAt = new int[capacity];
+        byte[] newValues = values == null ? null : new byte[capacity];
+        int newLength = 0;
+        for (int index = 0; index < length; index++) {
+            if (removedAt[index] == PRESENT) {
+                if (newValues != null)
+                    newValues[newLength] = values[index];
+                newElements[newLength++] = elements[index];
+            }
+        }
+        elements = newElements;
+        removedAt = newRemovedAt;
+        values = newValues;
+        length = newLength;
+        stamp = 1;
+        removedSinceFreeze = false;
+        table = buildTable(capacity * 2);
+    }
+
+    /**
+     * Builds a table of the visible entries with at least the given number of slots.
+     */
+    private int[] buildTable(int minCapacity) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < minCapacity)
+            capacity *= 2;
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, FREE);
+        for (int index = 0; index < length; index++) {
+            if (isVisible(removedAt[index]))
+                slots[freeSlotOf(slots, elements[index])] = index;
+        }
+        return slots;
+    }
+
+    private static int freeSlotOf(int[] slots, int value) {
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+        while (slots[slot] != FREE)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int hash(int value) {
+        int hash = value * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
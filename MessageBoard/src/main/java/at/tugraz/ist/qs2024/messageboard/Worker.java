@@ -9,14 +9,18 @@ import at.tugraz.ist.qs2024.messageboard.dispatchermessages.StopAck;
 import at.tugraz.ist.qs2024.messageboard.messagestoremessages.*;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Worker extends SimulatedActor {
     /**
-     * actor responsible for persistence-related tasks
+     * selects the message store (shard) responsible for persistence-related tasks
      */
-    private final SimulatedActor messageStore;
+    private final StoreRouter storeRouter;
 
     /**
      * the maximum allowed length of a message
@@ -44,6 +48,32 @@ public class Worker extends SimulatedActor {
      */
     private boolean stopping;
 
+    /**
+     * Maximum number of store operations sent to one store as a single batch,
+     * 1 means that every operation is sent on its own right away
+     */
+    private int maxBatchSize;
+
+    /**
+     * Maximum number of ticks a store operation is kept back to be batched with later operations
+     */
+    private int maxBatchDelay;
+
+    /**
+     * Store operations which have not been sent yet, grouped by the store they are sent to
+     */
+    private final Map<SimulatedActor, PendingBatch> pendingBatches;
+
+    /**
+     * Number of store operations in <c>pendingBatches</c>
+     */
+    private int pendingOperations;
+
+    /**
+     * Number of ticks since the oldest pending store operation was accumulated
+     */
+    private int ticksSinceFirstPending;
+
     /**
      * Constructs a new Worker object
      *
@@ -52,11 +82,68 @@ public class Worker extends SimulatedActor {
      * @param system       the actor system simulation
      */
     public Worker(SimulatedActor dispatcher, SimulatedActor messageStore, SimulatedActorSystem system) {
+        this(dispatcher, new StoreRouter(Collections.singletonList(messageStore)), system);
+    }
+
+    /**
+     * Constructs a new Worker object for a partitioned message store
+     *
+     * @param dispatcher  the dispatcher
+     * @param storeRouter selects the message store shard responsible for a request
+     * @param system      the actor system simulation
+     */
+    Worker(SimulatedActor dispatcher, StoreRouter storeRouter, SimulatedActorSystem system) {
         this.dispatcher = dispatcher;
-        this.messageStore = messageStore;
+        this.storeRouter = storeRouter;
         this.ongoingCommunications = new HashMap<>();
         this.system = system;
         this.stopping = false;
+        this.maxBatchSize = 1;
+        this.maxBatchDelay = 0;
+        this.pendingBatches = new LinkedHashMap<>();
+        this.pendingOperations = 0;
+        this.ticksSinceFirstPending = 0;
+    }
+
+    /**
+     * Enables batching of store operations. Operations for the same store are
+     * accumulated and sent as one <c>StoreBatch</c> as soon as <c>maxBatchSize</c>
+     * operations have been accumulated or the oldest operation has been kept back
+     * for <c>maxBatchDelay</c> ticks. Queries sent to all shards are never batched.
+     *
+     * @param maxBatchSize  maximum number of operations per batch, 1 disables batching
+     * @param maxBatchDelay maximum number of ticks an operation is kept back
+     */
+    void setBatching(int maxBatchSize, int maxBatchDelay) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchDelay = Math.max(0, maxBatchDelay);
+    }
+
+    /**
+     * Overridden tick()-method, which sends the accumulated store operations
+     * if they have been kept back long enough.
+     */
+    @Override
+    public void tick() throws UnknownClientException, UnknownMessageException {
+        super.tick();
+        if (pendingOperations > 0 && ticksSinceFirstPending++ >= maxBatchDelay)
+            flushBatches();
+    }
+
+    /**
+     * The batching timer only runs while store operations are kept back.
+     */
+    @Override
+    protected boolean needsTickWhileIdle() {
+        return pendingOperations > 0;
+    }
+
+    /**
+     * Workers spawn helpers while being ticked, so they are not ticked concurrently with other actors.
+     */
+    @Override
+    protected boolean canTickInParallel() {
+        return false;
     }
 
     /**
@@ -101,6 +188,8 @@ public class Worker extends SimulatedActor {
             processReport(message);
         } else if (message instanceof SearchMessages) {
             processSearchMessages(message);
+        } else if (message instanceof RetrieveTopMessages) {
+            processRetrieveTopMessages(message);
         } else if (message instanceof Edit) {
             processEdit(message);
         } else if (message instanceof Delete) {
@@ -110,6 +199,47 @@ public class Worker extends SimulatedActor {
 
     }
 
+    /**
+     * Spawns a helper which sends the given message to the responsible message store
+     * and forwards the response to the client. Queries which have to be answered
+     * by all shards of a partitioned store are handled by a {@link ScatterGatherHelper}.
+     *
+     * @param client  the client to which the response is forwarded
+     * @param message the message for the message store
+     */
+    private void sendToStore(SimulatedActor client, MessageStoreMessage message) {
+        SimulatedActor store = storeRouter.route(message);
+        if (store != null && maxBatchSize > 1) {
+            if (pendingOperations == 0)
+                ticksSinceFirstPending = 0;
+            pendingBatches.computeIfAbsent(store, s -> new PendingBatch()).add(client, message);
+            if (++pendingOperations >= maxBatchSize)
+                flushBatches();
+        } else if (store != null) {
+            system.spawn(new WorkerHelper(store, client, message, system));
+        } else {
+            system.spawn(new ScatterGatherHelper(storeRouter.getReadStores(message.communicationId), client, message, system));
+        }
+    }
+
+    /**
+     * Sends all accumulated store operations. A single operation for a store
+     * is sent on its own, several operations are sent as a batch.
+     */
+    private void flushBatches() {
+        for (Map.Entry<SimulatedActor, PendingBatch> entry : pendingBatches.entrySet()) {
+            PendingBatch batch = entry.getValue();
+            if (batch.operations.size() == 1) {
+                system.spawn(new WorkerHelper(entry.getKey(), batch.clients.get(0), batch.operations.get(0), system));
+            } else {
+                system.spawn(new StoreBatchHelper(entry.getKey(), batch.clients,
+                        new StoreBatch(batch.operations, batch.operations.get(0).communicationId), system));
+            }
+        }
+        pendingBatches.clear();
+        pendingOperations = 0;
+    }
+
     /**
      * Initiates communication with a client and sends an InitAck message to it,
      * which contains a reference to <c>this</c>.
@@ -147,6 +277,7 @@ public class Worker extends SimulatedActor {
      * Changes into stopping mode and acknowledges stopping to the dispatcher.
      */
     private void processStop() {
+        flushBatches();
         dispatcher.tell(new StopAck(this));
         stopping = true;
     }
@@ -164,9 +295,9 @@ public class Worker extends SimulatedActor {
             throw new UnknownClientException("Unknown communication ID");
         SimulatedActor client = ongoingCommunications.get(retrMessages.communicationId);
 
-        MessageStoreMessage retrievedMessages = new RetrieveFromStore(retrMessages.author, retrMessages.communicationId);
-        WorkerHelper helper = new WorkerHelper(messageStore, client, retrievedMessages, system);
-        system.spawn(helper);
+        MessageStoreMessage retrievedMessages = new RetrieveFromStore(retrMessages.author, retrMessages.communicationId,
+                retrMessages.limit, retrMessages.cursor);
+        sendToStore(client, retrievedMessages);
     }
 
     /**
@@ -182,8 +313,7 @@ public class Worker extends SimulatedActor {
             throw new UnknownClientException("Unknown communication ID");
         SimulatedActor client = ongoingCommunications.get(like.communicationId);
         MessageStoreMessage retrievedMessages = new AddLike(like.clientName, like.messageId, like.communicationId);
-        WorkerHelper helper = new WorkerHelper(messageStore, client, retrievedMessages, system);
-        system.spawn(helper);
+        sendToStore(client, retrievedMessages);
     }
 
     /**
@@ -201,8 +331,7 @@ public class Worker extends SimulatedActor {
         SimulatedActor client = ongoingCommunications.get(dislike.communicationId);
         MessageStoreMessage retrievedMessages =
                 new AddDislike(dislike.clientName, dislike.messageId, dislike.communicationId);
-        WorkerHelper helper = new WorkerHelper(messageStore, client, retrievedMessages, system);
-        system.spawn(helper);
+        sendToStore(client, retrievedMessages);
     }
 
     /**
@@ -220,8 +349,7 @@ public class Worker extends SimulatedActor {
         MessageStoreMessage retrievedMessages =
                 new DeleteLikeOrDislike(deleteLikeOrDislike.clientName, deleteLikeOrDislike.communicationId,
                         deleteLikeOrDislike.messageId, deleteLikeOrDislike.typeToDelete);
-        WorkerHelper helper = new WorkerHelper(messageStore, client, retrievedMessages, system);
-        system.spawn(helper);
+        sendToStore(client, retrievedMessages);
     }
 
     /**
@@ -238,8 +366,7 @@ public class Worker extends SimulatedActor {
         SimulatedActor client = ongoingCommunications.get(reaction.communicationId);
         MessageStoreMessage retrievedMessages = new AddReaction(reaction.clientName, reaction.messageId,
                 reaction.communicationId, reaction.reaction);
-        WorkerHelper helper = new WorkerHelper(messageStore, client, retrievedMessages, system);
-        system.spawn(helper);
+        sendToStore(client, retrievedMessages);
     }
 
     /**
@@ -263,8 +390,7 @@ public class Worker extends SimulatedActor {
             client.tell(new OperationFailed(publish.communicationId));
         } else {
             MessageStoreMessage updatedMessages = new UpdateMessageStore(userMessage, publish.communicationId);
-            WorkerHelper helper = new WorkerHelper(messageStore, client, updatedMessages, system);
-            system.spawn(helper);
+            sendToStore(client, updatedMessages);
         }
     }
 
@@ -281,8 +407,7 @@ public class Worker extends SimulatedActor {
             throw new UnknownClientException("Unknown communication ID");
         SimulatedActor client = ongoingCommunications.get(report.communicationId);
         MessageStoreMessage reportedMessage = new AddReport(report.clientName, report.communicationId, report.reportedClientName);
-        WorkerHelper helper = new WorkerHelper(messageStore, client, reportedMessage, system);
-        system.spawn(helper);
+        sendToStore(client, reportedMessage);
     }
 
     /**
@@ -298,9 +423,26 @@ public class Worker extends SimulatedActor {
             throw new UnknownClientException("Unknown communication ID");
         SimulatedActor client = ongoingCommunications.get(searchMessage.communicationId);
 
-        MessageStoreMessage searchResults = new SearchInStore(searchMessage.searchText, searchMessage.communicationId);
-        WorkerHelper helper = new WorkerHelper(messageStore, client, searchResults, system);
-        system.spawn(helper);
+        MessageStoreMessage searchResults = new SearchInStore(searchMessage.searchText, searchMessage.communicationId,
+                searchMessage.limit, searchMessage.cursor);
+        sendToStore(client, searchResults);
+    }
+
+    /**
+     * Spawns a worker helper which communicates with the message store to retrieve
+     * the user messages with the most points.
+     *
+     * @param message non-null message of type RetrieveTopMessages
+     * @throws UnknownClientException thrown if communication id of message is unknown
+     */
+    private void processRetrieveTopMessages(Message message) throws UnknownClientException {
+        RetrieveTopMessages retrieveTop = (RetrieveTopMessages) message;
+        if (!ongoingCommunications.containsKey(retrieveTop.communicationId))
+            throw new UnknownClientException("Unknown communication ID");
+        SimulatedActor client = ongoingCommunications.get(retrieveTop.communicationId);
+
+        MessageStoreMessage topMessages = new RetrieveTopFromStore(retrieveTop.count, retrieveTop.communicationId);
+        sendToStore(client, topMessages);
     }
 
     /**
@@ -320,8 +462,7 @@ public class Worker extends SimulatedActor {
         } else {
             MessageStoreMessage editedMessage =
                     new EditMessage(edit.messageId, edit.clientName, edit.newMessage, edit.communicationId);
-            WorkerHelper helper = new WorkerHelper(messageStore, client, editedMessage, system);
-            system.spawn(helper);
+            sendToStore(client, editedMessage);
         }
     }
 
@@ -339,7 +480,20 @@ public class Worker extends SimulatedActor {
             throw new UnknownClientException("Unknown communication ID");
         SimulatedActor client = ongoingCommunications.get(delete.communicationId);
         MessageStoreMessage deleteMessage = new DeleteMessage(delete.clientName, delete.messageId, delete.communicationId);
-        WorkerHelper helper = new WorkerHelper(messageStore, client, deleteMessage, system);
-        system.spawn(helper);
+        sendToStore(client, deleteMessage);
+    }
+
+    /**
+     * Store operations accumulated for one store together with the clients
+     * to which the replies are forwarded.
+     */
+    private static class PendingBatch {
+        private final List<MessageStoreMessage> operations = new ArrayList<>();
+        private final List<SimulatedActor> clients = new ArrayList<>();
+
+        private void add(SimulatedActor client, MessageStoreMessage operation) {
+            operations.add(operation);
+            clients.add(client);
+        }
     }
 }
@@ -97,11 +97,20 @@ public class WorkerHelper extends SimulatedActor {
      */
     @Override
     public void receive(Message message) {
-        client.tell(message);
+        forward(message);
         system.stop(this);
         stopping = true; // mark as stopping,
     }
 
+    /**
+     * Forwards the response of the message store to the client.
+     *
+     * @param response the response of the store or an OperationFailed message, if the store did not respond
+     */
+    protected void forward(Message response) {
+        client.tell(response);
+    }
+
     /**
      * Overridden tick()-method, which counts the time units passed since
      * the message was sent the last time and the number of sending
@@ -113,7 +122,7 @@ public class WorkerHelper extends SimulatedActor {
         // as all workers share one MessageStore instance, it might happen that messages are dropped
         if (!stopping && timeSinceLastSent++ >= 3) {
             if (retries == MAX_RETRIES) {
-                client.tell(new OperationFailed(message.communicationId));
+                forward(new OperationFailed(message.communicationId));
                 system.stop(this);
             } else {
                 messageStore.tell(message);
@@ -122,4 +131,12 @@ public class WorkerHelper extends SimulatedActor {
             }
         }
     }
+
+    /**
+     * The retry timer runs until the helper is stopped.
+     */
+    @Override
+    protected boolean needsTickWhileIdle() {
+        return !stopping;
+    }
 }
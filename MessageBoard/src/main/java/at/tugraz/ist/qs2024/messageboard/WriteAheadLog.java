@@ -0,0 +1,215 @@
+package at.tugraz.ist.qs2024.messageboard;
+
+import at.tugraz.ist.qs2024.actorsystem.SimulatedActor;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.MessageStoreMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the changes applied by a message store, which is
+ * replayed on start-up to restore the state of the store.
+ * <p>
+ * Each record consists of the length of its payload, a CRC32 checksum of the
+ * payload and the payload itself, which is a store message encoded by
+ * {@link MessageCodec} without its store client. Appended
+ * records are only buffered in memory, {@link WriteAheadLog#commit()} writes all
+ * of them with a single write and a single sync to disk (group commit). A record
+ * torn by a crash during a commit fails the checksum and is discarded on recovery,
+ * together with everything after it.
+ */
+class WriteAheadLog implements Closeable {
+
+    /**
+     * Number of bytes of the header preceding the payload of a record
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * Initial size of the buffer used for encoding records
+     */
+    private static final int INITIAL_RECORD_CAPACITY = 256;
+
+    /**
+     * The log file, opened for reading and appending
+     */
+    private final FileChannel channel;
+
+    /**
+     * Records appended since the last commit
+     */
+    private final ByteArrayOutputStream pending;
+
+    private final DataOutputStream pendingOut;
+
+    /**
+     * Reused for encoding the payload of records, grown if a record does not fit
+     */
+    private ByteBuffer payload;
+
+    private final MessageCodec codec;
+
+    private final CRC32 crc;
+
+    /**
+     * Opens the log file, creating it if it does not exist. The records already
+     * stored have to be read using {@link WriteAheadLog#recover()} before new
+     * records are appended.
+     *
+     * @param file the log file
+     * @throws IOException if the file cannot be opened
+     */
+    WriteAheadLog(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.pending = new ByteArrayOutputStream();
+        this.pendingOut = new DataOutputStream(pending);
+        this.payload = ByteBuffer.allocate(INITIAL_RECORD_CAPACITY);
+        this.codec = new MessageCodec();
+        this.crc = new CRC32();
+    }
+
+    /**
+     * Reads all complete records of the log and discards an incomplete or
+     * corrupted tail, so new records are appended directly after the last valid record.
+     *
+     * @return the logged changes in the order they have been applied
+     * @throws IOException if the file cannot be read or truncated
+     */
+    List<MessageStoreMessage> recover() throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+        while (content.hasRemaining() && channel.read(content, content.position()) >= 0) {
+            // read the whole file
+        }
+        content.flip();
+        List<MessageStoreMessage> changes = new ArrayList<>();
+        int validLength = readRecords(content, changes);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        return changes;
+    }
+
+    /**
+     * Reads all complete records of a log file without changing it.
+     *
+     * @param file the log file
+     * @return the logged changes in the order they have been applied, empty if there is no such file
+     * @throws IOException if the file cannot be read
+     */
+    static List<MessageStoreMessage> read(Path file) throws IOException {
+        List<MessageStoreMessage> changes = new ArrayList<>();
+        if (Files.exists(file))
+            readRecords(ByteBuffer.wrap(Files.readAllBytes(file)), changes);
+        return changes;
+    }
+
+    /**
+     * Buffers a record for the given change until the next commit.
+     *
+     * @param change a store message which has been applied successfully
+     */
+    void append(MessageStoreMessage change) {
+        SimulatedActor storeClient = change.storeClient;
+        change.storeClient = null;
+        try {
+            while (true) {
+                try {
+                    payload.clear();
+                    codec.encode(change, payload);
+                    break;
+                } catch (BufferOverflowException e) {
+                    payload = ByteBuffer.allocate(payload.capacity() * 2);
+                }
+            }
+            crc.reset();
+            crc.update(payload.array(), 0, payload.position());
+            pendingOut.writeInt(payload.position());
+            pendingOut.writeInt((int) crc.getValue());
+            pendingOut.write(payload.array(), 0, payload.position());
+            pendingOut.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            change.storeClient = storeClient;
+        }
+    }
+
+    /**
+     * @return true if records have been appended since the last commit, false otherwise
+     */
+    boolean hasPendingRecords() {
+        return pending.size() > 0;
+    }
+
+    /**
+     * Writes all records appended since the last commit and syncs them to disk.
+     */
+    void commit() {
+        if (!hasPendingRecords())
+            return;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            pending.reset();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Commits all pending records and closes the log file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        commit();
+        channel.close();
+    }
+
+    /**
+     * Decodes records until the end of the content or the first incomplete or corrupted record.
+     *
+     * @param content the content of the log file
+     * @param changes list the decoded changes are added to
+     * @return the number of bytes occupied by valid records
+     */
+    private static int readRecords(ByteBuffer content, List<MessageStoreMessage> changes) throws IOException {
+        CRC32 checksum = new CRC32();
+        MessageCodec codec = new MessageCodec();
+        while (content.remaining() >= HEADER_LENGTH) {
+            int start = content.position();
+            int length = content.getInt();
+            int expectedCrc = content.getInt();
+            if (length < 0 || length > content.remaining())
+                return start;
+            byte[] record = new byte[length];
+            content.get(record);
+            checksum.reset();
+            checksum.update(record, 0, length);
+            if ((int) checksum.getValue() != expectedCrc)
+                return start;
+            try {
+                changes.add((MessageStoreMessage) codec.decode(ByteBuffer.wrap(record)));
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid log record", e);
+            }
+        }
+        return content.position();
+    }
+}
@@ -5,18 +5,46 @@ import at.tugraz.ist.qs2024.messageboard.UserMessage;
 import java.util.List;
 
 /**
- * The response to the {@link RetrieveMessages} message sent from worker to client
- * containing all user messages written by the author defined in the message above.
+ * The response to the {@link RetrieveMessages} and {@link SearchMessages} messages
+ * sent from worker to client containing one page of the user messages matching
+ * the request, in ascending order of their message IDs.
  */
 public class FoundMessages extends ClientMessage {
     /**
-     * List of user messages written by one author
+     * Page size which can be requested to get all matching user messages at once
+     */
+    public final static int NO_LIMIT = 0;
+
+    /**
+     * Cursor which can be requested to get the first page of the matching user messages
+     */
+    public final static long FIRST_PAGE = 0;
+
+    /**
+     * Value of <c>nextCursor</c> if there are no further matching user messages
+     */
+    public final static long NO_MORE_MESSAGES = -1;
+
+    /**
+     * List of user messages matching the request. Messages returned by a message store are
+     * immutable snapshots, which are not affected by changes made after the request.
      */
     public final List<UserMessage> messages;
 
+    /**
+     * Cursor to request in order to get the next page or <c>NO_MORE_MESSAGES</c>
+     * if this is the last page
+     */
+    public final long nextCursor;
+
     public FoundMessages(List<UserMessage> messages, long communicationId) {
+        this(messages, communicationId, NO_MORE_MESSAGES);
+    }
+
+    public FoundMessages(List<UserMessage> messages, long communicationId, long nextCursor) {
         super(communicationId);
         this.messages = messages;
+        this.nextCursor = nextCursor;
     }
 
     @Override
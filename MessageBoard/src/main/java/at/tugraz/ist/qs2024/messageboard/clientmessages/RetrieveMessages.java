@@ -2,6 +2,8 @@ package at.tugraz.ist.qs2024.messageboard.clientmessages;
 
 /**
  * Message sent from client to worker to retrieve all user messages written by a given author.
+ * The messages can be fetched in pages by setting a limit and passing the
+ * cursor returned in {@link FoundMessages#nextCursor} with the next request.
  */
 public class RetrieveMessages extends ClientMessage {
     /**
@@ -9,9 +11,25 @@ public class RetrieveMessages extends ClientMessage {
      */
     public final String author;
 
+    /**
+     * The maximum number of messages to return or <c>FoundMessages.NO_LIMIT</c>
+     */
+    public final int limit;
+
+    /**
+     * The cursor of the page to return, <c>FoundMessages.FIRST_PAGE</c> for the first page
+     */
+    public final long cursor;
+
     public RetrieveMessages(String author, long communicationId) {
+        this(author, communicationId, FoundMessages.NO_LIMIT, FoundMessages.FIRST_PAGE);
+    }
+
+    public RetrieveMessages(String author, long communicationId, int limit, long cursor) {
         super(communicationId);
         this.author = author;
+        this.limit = limit;
+        this.cursor = cursor;
     }
 
     @Override
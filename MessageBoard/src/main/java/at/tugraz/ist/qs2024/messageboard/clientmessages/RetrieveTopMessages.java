@@ -0,0 +1,21 @@
+package at.tugraz.ist.qs2024.messageboard.clientmessages;
+
+/**
+ * Message sent from client to worker to retrieve the user messages with the most points.
+ */
+public class RetrieveTopMessages extends ClientMessage {
+    /**
+     * The maximum number of user messages to return
+     */
+    public final int count;
+
+    public RetrieveTopMessages(int count, long communicationId) {
+        super(communicationId);
+        this.count = count;
+    }
+
+    @Override
+    public int getDuration() {
+        return 3;
+    }
+}
@@ -2,7 +2,9 @@ package at.tugraz.ist.qs2024.messageboard.clientmessages;
 
 /**
  * Message sent from client to worker to search for the given message
- * either in the Author or the Message and return all matching messages
+ * either in the Author or the Message and return all matching messages.
+ * The messages can be fetched in pages by setting a limit and passing the
+ * cursor returned in {@link FoundMessages#nextCursor} with the next request.
  */
 public class SearchMessages extends ClientMessage {
     /**
@@ -10,9 +12,25 @@ public class SearchMessages extends ClientMessage {
      */
     public final String searchText;
 
+    /**
+     * The maximum number of messages to return or <c>FoundMessages.NO_LIMIT</c>
+     */
+    public final int limit;
+
+    /**
+     * The cursor of the page to return, <c>FoundMessages.FIRST_PAGE</c> for the first page
+     */
+    public final long cursor;
+
     public SearchMessages(String searchText, long communicationId) {
+        this(searchText, communicationId, FoundMessages.NO_LIMIT, FoundMessages.FIRST_PAGE);
+    }
+
+    public SearchMessages(String searchText, long communicationId, int limit, long cursor) {
         super(communicationId);
         this.searchText = searchText;
+        this.limit = limit;
+        this.cursor = cursor;
     }
 
     @Override
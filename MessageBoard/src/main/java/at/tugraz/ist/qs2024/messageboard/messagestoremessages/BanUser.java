@@ -0,0 +1,16 @@
+package at.tugraz.ist.qs2024.messageboard.messagestoremessages;
+
+/**
+ * Message sent from one message store shard to all other shards to signal
+ * that a user has been reported too often and is banned now. No response is sent.
+ */
+public class BanUser extends MessageStoreMessage {
+    /**
+     * Name of the banned user
+     */
+    public final String clientName;
+
+    public BanUser(String clientName) {
+        this.clientName = clientName;
+    }
+}
@@ -0,0 +1,24 @@
+package at.tugraz.ist.qs2024.messageboard.messagestoremessages;
+
+/**
+ * Entry of the change feed sent from a message store to its read replicas.
+ * It carries a store message which has been applied successfully by the store,
+ * so the replica can apply the same change. No response is sent.
+ */
+public class ReplicateChange extends MessageStoreMessage {
+    /**
+     * Position of the change in the feed, starting at zero
+     */
+    public final long sequenceNumber;
+
+    /**
+     * The applied store message
+     */
+    public final MessageStoreMessage change;
+
+    public ReplicateChange(long sequenceNumber, MessageStoreMessage change) {
+        this.sequenceNumber = sequenceNumber;
+        this.change = change;
+        this.communicationId = change.communicationId;
+    }
+}
@@ -1,5 +1,7 @@
 package at.tugraz.ist.qs2024.messageboard.messagestoremessages;
 
+import at.tugraz.ist.qs2024.messageboard.clientmessages.FoundMessages;
+
 /**
  * Message used to signal that messages should be retrieved from the store.
  */
@@ -9,8 +11,24 @@ public class RetrieveFromStore extends MessageStoreMessage {
      */
     public final String author;
 
+    /**
+     * The maximum number of messages to return or <c>FoundMessages.NO_LIMIT</c>
+     */
+    public final int limit;
+
+    /**
+     * Smallest message ID to return, <c>FoundMessages.FIRST_PAGE</c> for the first page
+     */
+    public final long cursor;
+
     public RetrieveFromStore(String author, long commId) {
+        this(author, commId, FoundMessages.NO_LIMIT, FoundMessages.FIRST_PAGE);
+    }
+
+    public RetrieveFromStore(String author, long commId, int limit, long cursor) {
         this.author = author;
         this.communicationId = commId;
+        this.limit = limit;
+        this.cursor = cursor;
     }
 }
@@ -0,0 +1,16 @@
+package at.tugraz.ist.qs2024.messageboard.messagestoremessages;
+
+/**
+ * Message used to signal that the messages with the most points should be retrieved from the store.
+ */
+public class RetrieveTopFromStore extends MessageStoreMessage {
+    /**
+     * The maximum number of messages which should be looked up
+     */
+    public final int count;
+
+    public RetrieveTopFromStore(int count, long commId) {
+        this.count = count;
+        this.communicationId = commId;
+    }
+}
@@ -1,5 +1,7 @@
 package at.tugraz.ist.qs2024.messageboard.messagestoremessages;
 
+import at.tugraz.ist.qs2024.messageboard.clientmessages.FoundMessages;
+
 /**
  * Message used to signal that it should be searched for the given message
  * either in the Author or the Message and return all matching messages.
@@ -10,8 +12,24 @@ public class SearchInStore extends MessageStoreMessage {
      */
     public final String searchText;
 
+    /**
+     * The maximum number of messages to return or <c>FoundMessages.NO_LIMIT</c>
+     */
+    public final int limit;
+
+    /**
+     * Smallest message ID to return, <c>FoundMessages.FIRST_PAGE</c> for the first page
+     */
+    public final long cursor;
+
     public SearchInStore(String searchText, long commId) {
+        this(searchText, commId, FoundMessages.NO_LIMIT, FoundMessages.FIRST_PAGE);
+    }
+
+    public SearchInStore(String searchText, long commId, int limit, long cursor) {
         this.searchText = searchText;
         this.communicationId = commId;
+        this.limit = limit;
+        this.cursor = cursor;
     }
 }
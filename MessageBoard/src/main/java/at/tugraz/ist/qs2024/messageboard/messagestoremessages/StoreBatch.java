@@ -0,0 +1,22 @@
+package at.tugraz.ist.qs2024.messageboard.messagestoremessages;
+
+import java.util.List;
+
+/**
+ * Message which carries several operations for the same message store,
+ * each with its own communication ID. The store processes all operations
+ * at once and sends a single <c>StoreBatchReply</c> back to the store client.
+ * The client of the store of the contained operations is not used.
+ */
+public class StoreBatch extends MessageStoreMessage {
+
+    /**
+     * The operations in the order they should be processed
+     */
+    public final List<MessageStoreMessage> operations;
+
+    public StoreBatch(List<MessageStoreMessage> operations, long commId) {
+        this.operations = operations;
+        this.communicationId = commId;
+    }
+}
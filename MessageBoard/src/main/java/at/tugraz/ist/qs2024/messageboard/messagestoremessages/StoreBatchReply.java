@@ -0,0 +1,32 @@
+package at.tugraz.ist.qs2024.messageboard.messagestoremessages;
+
+import at.tugraz.ist.qs2024.actorsystem.Message;
+
+import java.util.List;
+
+/**
+ * Reply message sent from the message store to the store client of a <c>StoreBatch</c>.
+ */
+public class StoreBatchReply implements Message {
+
+    /**
+     * The id of the communication of the batch
+     */
+    public final long communicationId;
+
+    /**
+     * The replies to the operations of the batch in the same order as the operations,
+     * an entry is null if no reply is sent for the operation
+     */
+    public final List<Message> replies;
+
+    public StoreBatchReply(List<Message> replies, long communicationId) {
+        this.replies = replies;
+        this.communicationId = communicationId;
+    }
+
+    @Override
+    public int getDuration() {
+        return 1;
+    }
+}
@@ -1,18 +1,36 @@
 package at.tugraz.ist.qs2024;
 
+import at.tugraz.ist.qs2024.actorsystem.DeterministicChannel;
 import at.tugraz.ist.qs2024.actorsystem.Message;
+import at.tugraz.ist.qs2024.actorsystem.MessageLogPolicy;
 import at.tugraz.ist.qs2024.actorsystem.SimulatedActor;
 import at.tugraz.ist.qs2024.actorsystem.SimulatedActorSystem;
 import at.tugraz.ist.qs2024.messageboard.*;
 import at.tugraz.ist.qs2024.messageboard.clientmessages.*;
 import at.tugraz.ist.qs2024.messageboard.dispatchermessages.Stop;
-import at.tugraz.ist.qs2024.messageboard.messagestoremessages.SearchInStore;
+import at.tugraz.ist.qs2024.messageboard.dispatchermessages.StopAck;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.*;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Random;
+import java.util.stream.Stream;
 
 /**
  * Simple actor, which can be used in tests, e.g. to check if the correct messages are sent by workers.
@@ -1262,4 +1280,1871 @@ public class MessageBoardTests {
         Assert.assertTrue(dispatcher.getMessageLog().get(1) instanceof Delete); //check if delete was added to dispatcher log
         Assert.assertEquals(2, dispatcher.getMessageLog().size()); //there should be init and delete in the message log
     }
+
+    @Test
+    public void testPagedRetrieveAndSearchMessages() throws UnknownClientException, UnknownMessageException {
+        for (int i = 0; i < 5; i++) {
+            worker.tell(new Publish(new UserMessage("Pager", "Page " + i), COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        }
+
+        // retrieve the messages of the author in pages of two messages
+        long cursor = FoundMessages.FIRST_PAGE;
+        int pages = 0;
+        int found = 0;
+        while (cursor != FoundMessages.NO_MORE_MESSAGES) {
+            worker.tell(new RetrieveMessages("Pager", COMMUNICATION_ID, 2, cursor));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            FoundMessages page = (FoundMessages) client.receivedMessages.remove();
+            Assert.assertTrue(page.messages.size() <= 2);
+            for (UserMessage message : page.messages)
+                Assert.assertEquals("Page " + found++, message.getMessage());
+            cursor = page.nextCursor;
+            pages++;
+        }
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(5, found);
+
+        // search with a page size of three returns the remaining messages with the next cursor
+        worker.tell(new SearchMessages("page", COMMUNICATION_ID, 3, FoundMessages.FIRST_PAGE));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        FoundMessages firstPage = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(3, firstPage.messages.size());
+        Assert.assertTrue(firstPage.nextCursor != FoundMessages.NO_MORE_MESSAGES);
+
+        worker.tell(new SearchMessages("page", COMMUNICATION_ID, 3, firstPage.nextCursor));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        FoundMessages secondPage = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(2, secondPage.messages.size());
+        Assert.assertEquals("Page 3", secondPage.messages.get(0).getMessage());
+        Assert.assertEquals(FoundMessages.NO_MORE_MESSAGES, secondPage.nextCursor);
+    }
+
+    @Test
+    public void testRetrieveTopMessages() throws UnknownClientException, UnknownMessageException {
+        UserMessage cold = new UserMessage("Top", "Cold");
+        UserMessage warm = new UserMessage("Top", "Warm");
+        UserMessage hot = new UserMessage("Top", "Hot");
+        for (UserMessage message : new UserMessage[]{cold, warm, hot}) {
+            worker.tell(new Publish(message, COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        }
+
+        String[] likes = {"Anna", "Berta", "Anna"};
+        long[] likedMessages = {hot.getMessageId(), hot.getMessageId(), warm.getMessageId()};
+        for (int i = 0; i < likes.length; i++) {
+            worker.tell(new Like(likes[i], COMMUNICATION_ID, likedMessages[i]));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertTrue(client.receivedMessages.remove() instanceof ReactionResponse);
+        }
+        worker.tell(new Dislike("Berta", COMMUNICATION_ID, cold.getMessageId()));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertTrue(client.receivedMessages.remove() instanceof ReactionResponse);
+
+        RetrieveTopMessages retrieveTop = new RetrieveTopMessages(2, COMMUNICATION_ID);
+        Assert.assertTrue(retrieveTop.getDuration() != 0);
+        worker.tell(retrieveTop);
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        FoundMessages top = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(2, top.messages.size());
+        Assert.assertEquals("Hot", top.messages.get(0).getMessage());
+        Assert.assertEquals("Warm", top.messages.get(1).getMessage());
+
+        // removing the likes of the hot message moves it behind the warm one
+        for (String name : new String[]{"Anna", "Berta"}) {
+            worker.tell(new RemoveLikeOrDislike(name, COMMUNICATION_ID, hot.getMessageId(), RemoveLikeOrDislike.Type.LIKE));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertTrue(client.receivedMessages.remove() instanceof ReactionResponse);
+        }
+        worker.tell(new RetrieveTopMessages(3, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        top = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(3, top.messages.size());
+        Assert.assertEquals("Warm", top.messages.get(0).getMessage());
+        Assert.assertEquals("Hot", top.messages.get(1).getMessage());
+        Assert.assertEquals("Cold", top.messages.get(2).getMessage());
+    }
+
+    @Test
+    public void testDispatcherShardConfiguration() {
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        try {
+            new Dispatcher(system, 1, 0);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("numberOfShards must be positive", e.getMessage());
+        }
+        try {
+            new Dispatcher(system, 1, 1, -1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("replicasPerShard must not be negative", e.getMessage());
+        }
+
+        // subclasses still find the message store of the first shard in the old field
+        class InspectingDispatcher extends Dispatcher {
+            InspectingDispatcher(int numberOfShards) {
+                super(system, 1, numberOfShards);
+            }
+
+            MessageStore firstStore() {
+                return messageStore;
+            }
+
+            List<MessageStore> stores() {
+                return messageStores;
+            }
+        }
+        for (int shards = 1; shards <= 3; shards++) {
+            InspectingDispatcher inspecting = new InspectingDispatcher(shards);
+            Assert.assertNull(inspecting.firstStore());
+            system.spawn(inspecting);
+            Assert.assertEquals(shards, inspecting.stores().size());
+            Assert.assertSame(inspecting.stores().get(0), inspecting.firstStore());
+            Assert.assertTrue(system.getActors().contains(inspecting.firstStore()));
+        }
+    }
+
+
+    @Test
+    public void testShardedMessageStore() throws UnknownClientException, UnknownMessageException {
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        Dispatcher dispatcher = new Dispatcher(system, 2, 3);
+        system.spawn(dispatcher);
+        TestClient client = new TestClient();
+        system.spawn(client);
+
+        dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+
+        String[] authors = {"Anna", "Berta", "Carla", "Dora", "Emma", "Frida"};
+        UserMessage[] published = new UserMessage[authors.length];
+        for (int i = 0; i < authors.length; i++) {
+            published[i] = new UserMessage(authors[i], "Shard");
+            worker.tell(new Publish(published[i], COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        }
+
+        // searches are answered by all shards
+        worker.tell(new SearchMessages("shard", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        FoundMessages found = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(authors.length, found.messages.size());
+
+        worker.tell(new RetrieveMessages("Carla", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        found = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(1, found.messages.size());
+        Assert.assertEquals("Carla", found.messages.get(0).getAuthor());
+
+        // requests referring to a message ID reach the shard owning the message
+        worker.tell(new Like("Anna", COMMUNICATION_ID, published[5].getMessageId()));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(1, ((ReactionResponse) client.receivedMessages.remove()).points);
+
+        worker.tell(new RetrieveTopMessages(1, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        found = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals("Frida", found.messages.get(0).getAuthor());
+
+        // a ban is known to all shards
+        for (int i = 0; i <= MessageStore.USER_BLOCKED_AT_COUNT; i++) {
+            worker.tell(new Report("Reporter" + i, COMMUNICATION_ID, "Spammer"));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        }
+        system.runFor(2);
+        for (UserMessage message : published) {
+            worker.tell(new Like("Spammer", COMMUNICATION_ID, message.getMessageId()));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(UserBanned.class, client.receivedMessages.remove().getClass());
+        }
+    }
+
+    @Test
+    public void testReadReplicas() throws UnknownClientException, UnknownMessageException {
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        Dispatcher dispatcher = new Dispatcher(system, 2, 2, 2);
+        system.spawn(dispatcher);
+        TestClient client = new TestClient();
+        system.spawn(client);
+
+        dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+
+        UserMessage message = new UserMessage("Anna", "Replicated");
+        worker.tell(new Publish(message, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        worker.tell(new Like("Berta", COMMUNICATION_ID, message.getMessageId()));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(1, ((ReactionResponse) client.receivedMessages.remove()).points);
+
+        // queries are answered by replicas, which have applied all changes acknowledged before
+        worker.tell(new RetrieveMessages("Anna", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        FoundMessages found = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(1, found.messages.size());
+        Assert.assertNotSame(message, found.messages.get(0));
+        Assert.assertEquals(message.getMessageId(), found.messages.get(0).getMessageId());
+        Assert.assertEquals(1, found.messages.get(0).getPoints());
+
+        worker.tell(new Edit(message.getMessageId(), "Anna", "Changed", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        worker.tell(new SearchMessages("changed", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        found = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(1, found.messages.size());
+        Assert.assertEquals("Changed", found.messages.get(0).getMessage());
+
+        worker.tell(new Delete(message.getMessageId(), "Anna", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        worker.tell(new SearchMessages("changed", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertTrue(((FoundMessages) client.receivedMessages.remove()).messages.isEmpty());
+    }
+
+    @Test
+    public void testBatchedStoreOperations() throws UnknownClientException, UnknownMessageException {
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        Dispatcher dispatcher = new Dispatcher(system, 1);
+        dispatcher.setStoreBatching(4, 8);
+        system.spawn(dispatcher);
+        TestClient client = new TestClient();
+        system.spawn(client);
+
+        int likes = 6;
+        for (int i = 0; i <= likes; i++) {
+            dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID + i));
+        }
+        while (client.receivedMessages.size() <= likes)
+            system.runFor(1);
+        SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+        client.receivedMessages.clear();
+
+        UserMessage message = new UserMessage("Anna", "Batch");
+        worker.tell(new Publish(message, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        // likes of several communications are sent to the store in batches, but every client gets its own reply
+        for (int i = 1; i <= likes; i++) {
+            worker.tell(new Like("Liker" + i, COMMUNICATION_ID + i, message.getMessageId()));
+        }
+        while (client.receivedMessages.size() < likes)
+            system.runFor(1);
+        for (int i = 1; i <= likes; i++) {
+            Reply reply = (Reply) client.receivedMessages.remove();
+            Assert.assertEquals(ReactionResponse.class, reply.getClass());
+            Assert.assertEquals(COMMUNICATION_ID + i, (long) reply.communicationId);
+        }
+        Assert.assertEquals(likes, message.getPoints());
+    }
+
+    @Test
+    public void testPersistentMessageStore() throws UnknownClientException, UnknownMessageException, IOException {
+        Path directory = Files.createTempDirectory("messageboard");
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        Dispatcher dispatcher = new Dispatcher(system, 2);
+        dispatcher.setPersistenceDirectory(directory);
+        system.spawn(dispatcher);
+        TestClient client = new TestClient();
+        system.spawn(client);
+
+        dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+
+        UserMessage message = new UserMessage("Anna", "Durable");
+        worker.tell(new Publish(message, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        UserMessage deleted = new UserMessage("Anna", "Deleted");
+        worker.tell(new Publish(deleted, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        worker.tell(new Like("Berta", COMMUNICATION_ID, message.getMessageId()));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(ReactionResponse.class, client.receivedMessages.remove().getClass());
+        worker.tell(new Edit(message.getMessageId(), "Anna", "Persisted", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        worker.tell(new Delete(deleted.getMessageId(), "Anna", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        for (int i = 0; i <= MessageStore.USER_BLOCKED_AT_COUNT; i++) {
+            worker.tell(new Report("Reporter" + i, COMMUNICATION_ID, "Spammer"));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        }
+
+        dispatcher.tell(new Stop());
+        while (system.getActors().contains(dispatcher))
+            system.runFor(1);
+
+        // a new system using the same directory continues with the state of the previous one
+        system = new SimulatedActorSystem();
+        dispatcher = new Dispatcher(system, 2);
+        dispatcher.setPersistenceDirectory(directory);
+        system.spawn(dispatcher);
+        client = new TestClient();
+        system.spawn(client);
+
+        dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        worker = ((InitAck) client.receivedMessages.remove()).worker;
+
+        worker.tell(new RetrieveMessages("Anna", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        FoundMessages found = (FoundMessages) client.receivedMessages.remove();
+        Assert.assertEquals(1, found.messages.size());
+        Assert.assertEquals(message.getMessageId(), found.messages.get(0).getMessageId());
+        Assert.assertEquals("Persisted", found.messages.get(0).getMessage());
+        Assert.assertEquals(1, found.messages.get(0).getPoints());
+
+        worker.tell(new Like("Spammer", COMMUNICATION_ID, message.getMessageId()));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(UserBanned.class, client.receivedMessages.remove().getClass());
+
+        // IDs of deleted messages are not reused
+        UserMessage next = new UserMessage("Anna", "Next");
+        worker.tell(new Publish(next, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        Assert.assertTrue(next.getMessageId() > deleted.getMessageId());
+
+        dispatcher.tell(new Stop());
+        while (system.getActors().contains(dispatcher))
+            system.runFor(1);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testWritesDuringStopArePersistedOrRejected() throws UnknownClientException, UnknownMessageException, IOException {
+        Path directory = Files.createTempDirectory("messageboard");
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        Dispatcher dispatcher = new Dispatcher(system, 2);
+        dispatcher.setPersistenceDirectory(directory);
+        system.spawn(dispatcher);
+        TestClient client = new TestClient();
+        system.spawn(client);
+        MessageStore store = null;
+        for (SimulatedActor actor : system.getActors()) {
+            if (actor instanceof MessageStore)
+                store = (MessageStore) actor;
+        }
+        Assert.assertNotNull(store);
+
+        // writes reach the store in every tick of the stop sequence, including the tick it is closed in
+        dispatcher.tell(new Stop());
+        int sent = 0;
+        while (system.getActors().contains(store)) {
+            UpdateMessageStore write = new UpdateMessageStore(new UserMessage("Writer", "Write " + sent), sent);
+            write.storeClient = client;
+            store.tell(write);
+            sent++;
+            system.runFor(1);
+        }
+        system.runFor(10);
+        List<String> acknowledged = new ArrayList<>();
+        int rejected = 0;
+        for (Message reply : client.receivedMessages) {
+            if (reply instanceof OperationAck)
+                acknowledged.add("Write " + ((OperationAck) reply).communicationId);
+            else if (reply instanceof OperationFailed)
+                rejected++;
+        }
+        Assert.assertFalse(acknowledged.isEmpty());
+        Assert.assertTrue(rejected > 0);
+
+        // every acknowledged write has been persisted
+        system = new SimulatedActorSystem();
+        dispatcher = new Dispatcher(system, 2);
+        dispatcher.setPersistenceDirectory(directory);
+        system.spawn(dispatcher);
+        client = new TestClient();
+        system.spawn(client);
+        dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+        worker.tell(new RetrieveMessages("Writer", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        List<String> persisted = new ArrayList<>();
+        for (UserMessage message : ((FoundMessages) client.receivedMessages.remove()).messages)
+            persisted.add(message.getMessage());
+        Assert.assertEquals(acknowledged, persisted);
+
+        dispatcher.tell(new Stop());
+        while (system.getActors().contains(dispatcher))
+            system.runFor(1);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+
+    @Test
+    public void testMessageStoreSnapshots() throws UnknownClientException, UnknownMessageException, IOException {
+        Path directory = Files.createTempDirectory("messageboard");
+        String[] authors = {"Anna", "Berta", "Carla"};
+        long[] messageIds = new long[authors.length];
+
+        for (int run = 0; run < 2; run++) {
+            SimulatedActorSystem system = new SimulatedActorSystem();
+            Dispatcher dispatcher = new Dispatcher(system, 2);
+            dispatcher.setPersistenceDirectory(directory);
+            dispatcher.setSnapshotInterval(2);
+            system.spawn(dispatcher);
+            TestClient client = new TestClient();
+            system.spawn(client);
+
+            dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+
+            if (run == 0) {
+                for (int i = 0; i < authors.length; i++) {
+                    UserMessage message = new UserMessage(authors[i], "Snapshot");
+                    worker.tell(new Publish(message, COMMUNICATION_ID));
+                    while (client.receivedMessages.isEmpty())
+                        system.runFor(1);
+                    Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+                    messageIds[i] = message.getMessageId();
+                }
+                worker.tell(new Like("Berta", COMMUNICATION_ID, messageIds[0]));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                client.receivedMessages.remove();
+                worker.tell(new Dislike("Carla", COMMUNICATION_ID, messageIds[0]));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                client.receivedMessages.remove();
+                worker.tell(new Reaction("Carla", COMMUNICATION_ID, messageIds[0], Reaction.Emoji.SMILEY));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                client.receivedMessages.remove();
+            } else {
+                // state restored from the snapshot and the log written after it
+                worker.tell(new RetrieveMessages("Anna", COMMUNICATION_ID));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                UserMessage restored = ((FoundMessages) client.receivedMessages.remove()).messages.get(0);
+                Assert.assertEquals(messageIds[0], restored.getMessageId());
+                Assert.assertEquals(0, restored.getPoints());
+                Assert.assertTrue(restored.getLikes().contains("Berta"));
+                Assert.assertTrue(restored.getDislikes().contains("Carla"));
+                Assert.assertTrue(restored.getReactions("Carla").contains(Reaction.Emoji.SMILEY));
+                Assert.assertEquals(1, restored.getReactionCount(Reaction.Emoji.SMILEY));
+
+                worker.tell(new SearchMessages("snapshot", COMMUNICATION_ID));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                Assert.assertEquals(authors.length, ((FoundMessages) client.receivedMessages.remove()).messages.size());
+            }
+
+            dispatcher.tell(new Stop());
+            while (system.getActors().contains(dispatcher))
+                system.runFor(1);
+            try (Stream<Path> files = Files.list(directory)) {
+                Assert.assertTrue(files.anyMatch(file -> file.toString().endsWith(".snapshot")));
+            }
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testLazyInteractionsOutliveTheirSnapshot() throws UnknownClientException, UnknownMessageException, IOException {
+        Path directory = Files.createTempDirectory("messageboard");
+        UserMessage liked = new UserMessage("Anna", "Liked");
+        for (int run = 0; run < 3; run++) {
+            SimulatedActorSystem system = new SimulatedActorSystem();
+            Dispatcher dispatcher = new Dispatcher(system, 1);
+            dispatcher.setPersistenceDirectory(directory);
+            dispatcher.setSnapshotInterval(2);
+            system.spawn(dispatcher);
+            TestClient client = new TestClient();
+            system.spawn(client);
+            dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+
+            if (run == 0) {
+                worker.tell(new Publish(liked, COMMUNICATION_ID));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                client.receivedMessages.remove();
+                worker.tell(new Like("Berta", COMMUNICATION_ID, liked.getMessageId()));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                client.receivedMessages.remove();
+            } else if (run == 1) {
+                // snapshots are taken, while the interactions of the liked message are still encoded
+                for (int i = 0; i < 5; i++) {
+                    worker.tell(new Publish(new UserMessage("Berta", "Other " + i), COMMUNICATION_ID));
+                    while (client.receivedMessages.isEmpty())
+                        system.runFor(1);
+                    Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+                }
+            } else {
+                worker.tell(new RetrieveMessages("Anna", COMMUNICATION_ID));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                UserMessage restored = ((FoundMessages) client.receivedMessages.remove()).messages.get(0);
+                Assert.assertEquals(Collections.singletonList("Berta"), new ArrayList<>(restored.getLikes()));
+                Assert.assertEquals(1, restored.getPoints());
+            }
+
+            dispatcher.tell(new Stop());
+            while (system.getActors().contains(dispatcher))
+                system.runFor(1);
+            // the snapshot loaded on start-up has been replaced
+            try (Stream<Path> files = Files.list(directory)) {
+                Assert.assertEquals(1, files.filter(file -> file.toString().endsWith(".snapshot")).count());
+            }
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+
+    @Test
+    public void testFailedSnapshotIsReported() throws UnknownClientException, UnknownMessageException, IOException {
+        Path directory = Files.createTempDirectory("messageboard");
+        // a directory in place of the temporary file of the first snapshot makes writing it fail
+        Path blocked = Files.createDirectory(directory.resolve("store-0-1.snapshot.tmp"));
+        Files.createFile(blocked.resolve("file"));
+
+        long messageId = UserMessage.NEW_ID;
+        for (int run = 0; run < 2; run++) {
+            SimulatedActorSystem system = new SimulatedActorSystem();
+            Dispatcher dispatcher = new Dispatcher(system, 1);
+            dispatcher.setPersistenceDirectory(directory);
+            dispatcher.setSnapshotInterval(1);
+            system.spawn(dispatcher);
+            TestClient client = new TestClient();
+            system.spawn(client);
+            dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+
+            if (run == 0) {
+                UserMessage message = new UserMessage("Anna", "Kept");
+                worker.tell(new Publish(message, COMMUNICATION_ID));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+                messageId = message.getMessageId();
+
+                dispatcher.tell(new Stop());
+                try {
+                    while (system.getActors().contains(dispatcher))
+                        system.runFor(1);
+                    Assert.fail("UncheckedIOException expected");
+                } catch (UncheckedIOException e) {
+                    // expected, the snapshot could not be written
+                }
+            } else {
+                // the log segment has been kept, so the message is recovered
+                worker.tell(new RetrieveMessages("Anna", COMMUNICATION_ID));
+                while (client.receivedMessages.isEmpty())
+                    system.runFor(1);
+                List<UserMessage> found = ((FoundMessages) client.receivedMessages.remove()).messages;
+                Assert.assertEquals(1, found.size());
+                Assert.assertEquals(messageId, found.get(0).getMessageId());
+            }
+        }
+
+        Files.delete(blocked.resolve("file"));
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testMessageCodecRoundTrip() {
+        UserMessage userMessage = new UserMessage("\u00C4nna", "Gr\u00FC\u00DFe \uD83D\uDE00 from the codec");
+        userMessage.setMessageId(42);
+        userMessage.setPoints(3);
+        userMessage.getLikes().add("Berta");
+        userMessage.getLikes().add("Carla");
+        userMessage.getDislikes().add("Dora");
+        userMessage.addReaction("Berta", Reaction.Emoji.SMILEY);
+        userMessage.addReaction("Berta", Reaction.Emoji.LAUGHING);
+
+        AddLike addLike = new AddLike("Berta", 42, COMMUNICATION_ID);
+        addLike.storeClient = client;
+        List<Message> messages = Arrays.asList(
+                new Delete(42, "\u00C4nna", COMMUNICATION_ID),
+                new Dislike("Berta", COMMUNICATION_ID, 42),
+                new Edit(42, "\u00C4nna", "edited \u2713", COMMUNICATION_ID),
+                new FinishAck(COMMUNICATION_ID),
+                new FinishCommunication(COMMUNICATION_ID),
+                new FoundMessages(Arrays.asList(userMessage, new UserMessage("Berta", "")), COMMUNICATION_ID, 7),
+                new InitAck(client, COMMUNICATION_ID),
+                new InitCommunication(client, COMMUNICATION_ID),
+                new Like("Berta", COMMUNICATION_ID, 42),
+                new OperationAck(COMMUNICATION_ID),
+                new OperationFailed(COMMUNICATION_ID),
+                new Publish(userMessage, COMMUNICATION_ID),
+                new Reaction("Berta", COMMUNICATION_ID, 42, Reaction.Emoji.SKEPTICAL),
+                new ReactionResponse(COMMUNICATION_ID, 5),
+                new RemoveLikeOrDislike("Berta", COMMUNICATION_ID, 42, RemoveLikeOrDislike.Type.DISLIKE),
+                new Report("Berta", COMMUNICATION_ID, "\u00C4nna"),
+                new RetrieveMessages("\u00C4nna", COMMUNICATION_ID, 10, 3),
+                new RetrieveTopMessages(5, COMMUNICATION_ID),
+                new SearchMessages("gr\u00FC\u00DFe", COMMUNICATION_ID, FoundMessages.NO_LIMIT, FoundMessages.FIRST_PAGE),
+                new UserBanned(COMMUNICATION_ID),
+                new AddDislike("Dora", 42, COMMUNICATION_ID),
+                addLike,
+                new AddReaction("Berta", 42, COMMUNICATION_ID, Reaction.Emoji.LAUGHING),
+                new AddReport("Berta", COMMUNICATION_ID, "\u00C4nna"),
+                new BanUser("\u00C4nna"),
+                new DeleteLikeOrDislike("Berta", COMMUNICATION_ID, 42, RemoveLikeOrDislike.Type.LIKE),
+                new DeleteMessage("\u00C4nna", 42, COMMUNICATION_ID),
+                new EditMessage(42, "\u00C4nna", null, COMMUNICATION_ID),
+                new ReplicateChange(17, new UpdateMessageStore(userMessage, COMMUNICATION_ID)),
+                new RetrieveFromStore("\u00C4nna", COMMUNICATION_ID, 10, 3),
+                new RetrieveTopFromStore(5, COMMUNICATION_ID),
+                new SearchInStore("gr\u00FC\u00DFe", COMMUNICATION_ID),
+                new StoreBatch(Arrays.asList(addLike, new BanUser("Dora")), COMMUNICATION_ID),
+                new StoreBatchReply(Arrays.asList(new OperationAck(COMMUNICATION_ID), null), COMMUNICATION_ID),
+                new UpdateMessageStore(userMessage, COMMUNICATION_ID),
+                new Stop(),
+                new StopAck(client));
+
+        MessageCodec codec = new MessageCodec(id -> id == client.getId() ? client : null);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        ByteBuffer reencoded = ByteBuffer.allocate(1024);
+        for (Message message : messages) {
+            buffer.clear();
+            codec.encode(message, buffer);
+            buffer.flip();
+            Message decoded = codec.decode(buffer);
+            Assert.assertFalse(buffer.hasRemaining());
+            Assert.assertEquals(message.getClass(), decoded.getClass());
+            Assert.assertEquals(message.getDuration(), decoded.getDuration());
+
+            buffer.rewind();
+            reencoded.clear();
+            codec.encode(decoded, reencoded);
+            reencoded.flip();
+            Assert.assertEquals(buffer, reencoded);
+        }
+
+        buffer.clear();
+        codec.encode(new Publish(userMessage, COMMUNICATION_ID), buffer);
+        buffer.flip();
+        Publish publish = (Publish) codec.decode(buffer);
+        Assert.assertEquals(Long.valueOf(COMMUNICATION_ID), publish.communicationId);
+        Assert.assertEquals(userMessage.toString(), publish.message.toString());
+        Assert.assertEquals(userMessage.getMessageId(), publish.message.getMessageId());
+        Assert.assertEquals(userMessage.getReactions("Berta"), publish.message.getReactions("Berta"));
+        Assert.assertEquals(1, publish.message.getReactionCount(Reaction.Emoji.LAUGHING));
+
+        buffer.clear();
+        codec.encode(new StoreBatch(Collections.singletonList(addLike), COMMUNICATION_ID), buffer);
+        buffer.flip();
+        AddLike decodedLike = (AddLike) ((StoreBatch) codec.decode(buffer)).operations.get(0);
+        Assert.assertEquals(client, decodedLike.storeClient);
+        Assert.assertEquals("Berta", decodedLike.clientName);
+        Assert.assertEquals(42, decodedLike.messageId);
+
+        buffer.clear();
+        codec.encode(new StoreBatchReply(Arrays.asList(new UserBanned(COMMUNICATION_ID), null), COMMUNICATION_ID), buffer);
+        buffer.flip();
+        List<Message> replies = ((StoreBatchReply) codec.decode(buffer)).replies;
+        Assert.assertEquals(UserBanned.class, replies.get(0).getClass());
+        Assert.assertNull(replies.get(1));
+
+        ByteBuffer tooSmall = ByteBuffer.allocate(16);
+        try {
+            codec.encode(new Publish(userMessage, COMMUNICATION_ID), tooSmall);
+            Assert.fail("BufferOverflowException expected");
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPackedMessageTexts() throws UnknownClientException, UnknownMessageException {
+        String[] texts = {"", "a", "HelloWorld", "Gr\u00FC\u00DFe", "fifteen chars!!", "sixteen chars!!!",
+                "\u20ACuro", "\uD83D\uDE00", null};
+        for (String text : texts) {
+            UserMessage message = new UserMessage("Anna", text);
+            Assert.assertEquals(text, message.getMessage());
+            Assert.assertEquals("Anna: " + text + ", liked by : , disliked by : , points: 0", message.toString());
+        }
+        UserMessage edited = new UserMessage("Anna", "short");
+        edited.setMessage("\u20AC");
+        Assert.assertEquals("\u20AC", edited.getMessage());
+
+        // texts differing only in their last characters or in case are no duplicates
+        String[] published = {"abcdefghij", "abcdefghik", "Abcdefghij", "abcdefgh"};
+        long[] messageIds = new long[published.length];
+        for (int i = 0; i < published.length; i++) {
+            UserMessage message = new UserMessage("Anna", published[i]);
+            worker.tell(new Publish(message, COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+            messageIds[i] = message.getMessageId();
+        }
+
+        worker.tell(new Publish(new UserMessage("Anna", "abcdefghij"), COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationFailed.class, client.receivedMessages.remove().getClass());
+
+        worker.tell(new Edit(messageIds[3], "Anna", "abcdefghik", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationFailed.class, client.receivedMessages.remove().getClass());
+
+        worker.tell(new Edit(messageIds[1], "Anna", "abcdefghi", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        // the old text of an edited message can be published again
+        worker.tell(new Publish(new UserMessage("Anna", "abcdefghik"), COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        worker.tell(new RetrieveMessages("Anna", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        List<UserMessage> found = ((FoundMessages) client.receivedMessages.remove()).messages;
+        Assert.assertEquals(5, found.size());
+        Assert.assertEquals("abcdefghij", found.get(0).getMessage());
+        Assert.assertEquals("abcdefghi", found.get(1).getMessage());
+        Assert.assertEquals("Abcdefghij", found.get(2).getMessage());
+        Assert.assertEquals("abcdefgh", found.get(3).getMessage());
+        Assert.assertEquals("abcdefghik", found.get(4).getMessage());
+    }
+
+    @Test
+    public void testDictionaryEncodedNames() throws UnknownClientException, UnknownMessageException {
+        // names of messages which are not stored yet
+        UserMessage draft = new UserMessage("Anna", "draft");
+        Assert.assertTrue(draft.getLikes().add("Berta"));
+        Assert.assertFalse(draft.getLikes().add("Berta"));
+        Assert.assertTrue(draft.getLikes().add("Carla"));
+        Assert.assertTrue(draft.getLikes().contains("Carla"));
+        Assert.assertFalse(draft.getLikes().contains("Dora"));
+        Assert.assertFalse(draft.getDislikes().contains("Berta"));
+        Assert.assertTrue(draft.getLikes().remove("Berta"));
+        Assert.assertFalse(draft.getLikes().remove("Dora"));
+        Assert.assertEquals(Collections.singleton("Carla"), draft.getLikes());
+        draft.getLikes().clear();
+        Assert.assertTrue(draft.getLikes().isEmpty());
+
+        UserMessage message = new UserMessage("Anna", "names");
+        worker.tell(new Publish(message, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        int likers = 50;
+        for (int i = 0; i < likers; i++) {
+            worker.tell(new Like("Liker" + i, COMMUNICATION_ID, message.getMessageId()));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(ReactionResponse.class, client.receivedMessages.remove().getClass());
+        }
+        for (int i = 0; i < likers; i += 2) {
+            worker.tell(new Dislike("Liker" + i, COMMUNICATION_ID, message.getMessageId()));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertEquals(ReactionResponse.class, client.receivedMessages.remove().getClass());
+        }
+        worker.tell(new Reaction("Liker1", COMMUNICATION_ID, message.getMessageId(), Reaction.Emoji.SMILEY));
+        worker.tell(new Reaction("Liker1", COMMUNICATION_ID, message.getMessageId(), Reaction.Emoji.HORROR));
+        worker.tell(new Reaction("Anna", COMMUNICATION_ID, message.getMessageId(), Reaction.Emoji.SMILEY));
+        while (client.receivedMessages.size() < 3)
+            system.runFor(1);
+        client.receivedMessages.clear();
+
+        Assert.assertEquals(likers / 2, message.getLikes().size());
+        Assert.assertEquals(likers / 2, message.getDislikes().size());
+        for (int i = 0; i < likers; i++) {
+            Assert.assertEquals(i % 2 == 1, message.getLikes().contains("Liker" + i));
+            Assert.assertEquals(i % 2 == 0, message.getDislikes().contains("Liker" + i));
+        }
+        Assert.assertEquals(likers / 2, message.getLikes().stream().distinct().count());
+        Assert.assertEquals(0, message.getPoints());
+        Assert.assertEquals(2, message.getReactions().size());
+        Assert.assertEquals((1 << Reaction.Emoji.SMILEY.ordinal()) | (1 << Reaction.Emoji.HORROR.ordinal()),
+                message.getReactions().get("Liker1").intValue());
+        Assert.assertEquals(2, message.getReactionCount(Reaction.Emoji.SMILEY));
+        Assert.assertEquals(1, message.getReactionCount(Reaction.Emoji.HORROR));
+        Assert.assertTrue(message.getReactions("Liker0").isEmpty());
+        Assert.assertTrue(message.getReactions("Unknown").isEmpty());
+    }
+
+    @Test
+    public void testFoundMessagesAreSnapshots() throws UnknownClientException, UnknownMessageException {
+        UserMessage message = new UserMessage("Anna", "Original");
+        worker.tell(new Publish(message, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        worker.tell(new Like("Berta", COMMUNICATION_ID, message.getMessageId()));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        client.receivedMessages.remove();
+
+        worker.tell(new RetrieveMessages("Anna", COMMUNICATION_ID));
+        worker.tell(new SearchMessages("orig", COMMUNICATION_ID));
+        while (client.receivedMessages.size() < 2)
+            system.runFor(1);
+        UserMessage before = ((FoundMessages) client.receivedMessages.remove()).messages.get(0);
+        Assert.assertSame(before, ((FoundMessages) client.receivedMessages.remove()).messages.get(0));
+        Assert.assertTrue(before.isSnapshot());
+        Assert.assertFalse(message.isSnapshot());
+        Assert.assertEquals(message.getVersion(), before.getVersion());
+
+        worker.tell(new Like("Carla", COMMUNICATION_ID, message.getMessageId()));
+        worker.tell(new Dislike("Berta", COMMUNICATION_ID, message.getMessageId()));
+        worker.tell(new Reaction("Carla", COMMUNICATION_ID, message.getMessageId(), Reaction.Emoji.SMILEY));
+        worker.tell(new Edit(message.getMessageId(), "Anna", "Edited", COMMUNICATION_ID));
+        while (client.receivedMessages.size() < 4)
+            system.runFor(1);
+        client.receivedMessages.clear();
+
+        // the snapshot still shows the state at the time of the request
+        Assert.assertEquals("Original", before.getMessage());
+        Assert.assertEquals(1, before.getPoints());
+        Assert.assertEquals(Collections.singleton("Berta"), before.getLikes());
+        Assert.assertTrue(before.getDislikes().isEmpty());
+        Assert.assertEquals(0, before.getReactionCount(Reaction.Emoji.SMILEY));
+
+        Assert.assertEquals("Edited", message.getMessage());
+        Assert.assertEquals(Collections.singleton("Carla"), message.getLikes());
+        Assert.assertEquals(Collections.singleton("Berta"), message.getDislikes());
+        Assert.assertTrue(message.getVersion() > before.getVersion());
+
+        worker.tell(new RetrieveTopMessages(1, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        UserMessage after = ((FoundMessages) client.receivedMessages.remove()).messages.get(0);
+        Assert.assertNotSame(before, after);
+        Assert.assertEquals("Edited", after.getMessage());
+        Assert.assertEquals(message.getVersion(), after.getVersion());
+        Assert.assertEquals(1, after.getReactionCount(Reaction.Emoji.SMILEY));
+
+        try {
+            after.getLikes().add("Dora");
+            Assert.fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            after.setPoints(100);
+            Assert.fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals(0, after.getPoints());
+    }
+
+    @Test
+    public void testSnapshotsKeepTheirInteractions() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        UserMessage message = new UserMessage("Anna", "Popular");
+        askStore(store, new UpdateMessageStore(message, COMMUNICATION_ID));
+        List<String> likers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            likers.add("Client" + i);
+            askStore(store, new AddLike("Client" + i, message.getMessageId(), COMMUNICATION_ID));
+        }
+        UserMessage before = ((FoundMessages) askStore(store, new RetrieveFromStore("Anna", COMMUNICATION_ID))).messages.get(0);
+
+        // removing and adding likes after the snapshot does not change the snapshot
+        for (int i = 0; i < 100; i += 2) {
+            askStore(store, new DeleteLikeOrDislike("Client" + i, COMMUNICATION_ID, message.getMessageId(),
+                    RemoveLikeOrDislike.Type.LIKE));
+        }
+        UserMessage between = ((FoundMessages) askStore(store, new RetrieveFromStore("Anna", COMMUNICATION_ID))).messages.get(0);
+        for (int i = 0; i < 100; i += 4) {
+            askStore(store, new AddLike("Client" + i, message.getMessageId(), COMMUNICATION_ID));
+        }
+        for (int i = 100; i < 300; i++) {
+            askStore(store, new AddDislike("Client" + i, message.getMessageId(), COMMUNICATION_ID));
+        }
+
+        Assert.assertEquals(likers, new ArrayList<>(before.getLikes()));
+        Assert.assertTrue(before.getLikes().contains("Client0"));
+        Assert.assertTrue(before.getDislikes().isEmpty());
+        Assert.assertEquals(50, between.getLikes().size());
+        Assert.assertFalse(between.getLikes().contains("Client0"));
+        Assert.assertTrue(between.getLikes().contains("Client1"));
+
+        // likes added again are in the order they were added again
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i < 100; i += 2) {
+            expected.add("Client" + i);
+        }
+        for (int i = 0; i < 100; i += 4) {
+            expected.add("Client" + i);
+        }
+        Assert.assertEquals(expected, new ArrayList<>(message.getLikes()));
+        Assert.assertEquals(200, message.getDislikes().size());
+        Assert.assertTrue(message.getDislikes().contains("Client299"));
+        Assert.assertEquals(75 - 200, message.getPoints());
+    }
+
+    @Test
+    public void testAuthorIndexFollowsEditsAndDeletes() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        List<UserMessage> annasMessages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            UserMessage message = new UserMessage("Anna", "Anna " + i);
+            annasMessages.add(message);
+            Assert.assertEquals(OperationAck.class,
+                    askStore(store, new UpdateMessageStore(message, COMMUNICATION_ID)).getClass());
+        }
+        UserMessage bertsMessage = new UserMessage("Bert", "Bert 0");
+        askStore(store, new UpdateMessageStore(bertsMessage, COMMUNICATION_ID));
+
+        // an edited message is still found by its author
+        Assert.assertEquals(OperationAck.class, askStore(store, new EditMessage(annasMessages.get(1).getMessageId(),
+                "Anna", "Edited", COMMUNICATION_ID)).getClass());
+        List<UserMessage> found = ((FoundMessages) askStore(store, new RetrieveFromStore("Anna", COMMUNICATION_ID))).messages;
+        Assert.assertEquals(3, found.size());
+        Assert.assertEquals("Edited", found.get(1).getMessage());
+
+        // a deleted message is not found anymore, messages of other authors are not affected
+        Assert.assertEquals(OperationAck.class, askStore(store, new DeleteMessage("Anna",
+                annasMessages.get(0).getMessageId(), COMMUNICATION_ID)).getClass());
+        found = ((FoundMessages) askStore(store, new RetrieveFromStore("Anna", COMMUNICATION_ID))).messages;
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals(annasMessages.get(1).getMessageId(), found.get(0).getMessageId());
+        Assert.assertEquals(annasMessages.get(2).getMessageId(), found.get(1).getMessageId());
+        found = ((FoundMessages) askStore(store, new RetrieveFromStore("Bert", COMMUNICATION_ID))).messages;
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(bertsMessage.getMessageId(), found.get(0).getMessageId());
+
+        // deleting the last messages of an author leaves nothing to retrieve
+        askStore(store, new DeleteMessage("Anna", annasMessages.get(1).getMessageId(), COMMUNICATION_ID));
+        askStore(store, new DeleteMessage("Anna", annasMessages.get(2).getMessageId(), COMMUNICATION_ID));
+        Assert.assertTrue(((FoundMessages) askStore(store, new RetrieveFromStore("Anna", COMMUNICATION_ID))).messages.isEmpty());
+        Assert.assertEquals(1, ((FoundMessages) askStore(store, new RetrieveFromStore("Bert", COMMUNICATION_ID))).messages.size());
+    }
+
+
+    @Test
+    public void testDuplicateDetectionFollowsEditsAndDeletes() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        UserMessage first = new UserMessage("Anna", "Hello");
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(first, COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Anna", "Hello"), COMMUNICATION_ID)).getClass());
+        // the same text of another author and texts differing in case are no duplicates
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Bert", "Hello"), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Anna", "hello"), COMMUNICATION_ID)).getClass());
+
+        // editing a message frees its old text and takes the new one
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new EditMessage(first.getMessageId(), "Anna", "hello", COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new EditMessage(first.getMessageId(), "Anna", "Goodbye", COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Anna", "Goodbye"), COMMUNICATION_ID)).getClass());
+        UserMessage second = new UserMessage("Anna", "Hello");
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(second, COMMUNICATION_ID)).getClass());
+
+        // a failed edit does not change the texts taken by the author
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new EditMessage(second.getMessageId(), "Anna", "Goodbye", COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Anna", "Hello"), COMMUNICATION_ID)).getClass());
+
+        // deleting a message frees its text
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new DeleteMessage("Anna", first.getMessageId(), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Anna", "Goodbye"), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Anna", "Hello"), COMMUNICATION_ID)).getClass());
+    }
+
+
+    @Test
+    public void testLikesAndDislikesAreOrderedSets() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        UserMessage message = new UserMessage("Anna", "Likeable");
+        askStore(store, new UpdateMessageStore(message, COMMUNICATION_ID));
+        for (String name : Arrays.asList("Carl", "Anna", "Bert")) {
+            Assert.assertEquals(ReactionResponse.class,
+                    askStore(store, new AddLike(name, message.getMessageId(), COMMUNICATION_ID)).getClass());
+        }
+
+        // liking twice is rejected and does not change the likes
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new AddLike("Anna", message.getMessageId(), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(3, message.getLikes().size());
+        Assert.assertEquals(3, message.getPoints());
+        Assert.assertEquals(Arrays.asList("Carl", "Anna", "Bert"), new ArrayList<>(message.getLikes()));
+
+        // a dislike replaces the like of the same person, the other likes keep their order
+        Assert.assertEquals(ReactionResponse.class,
+                askStore(store, new AddDislike("Anna", message.getMessageId(), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new AddDislike("Anna", message.getMessageId(), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(Arrays.asList("Carl", "Bert"), new ArrayList<>(message.getLikes()));
+        Assert.assertEquals(Collections.singletonList("Anna"), new ArrayList<>(message.getDislikes()));
+        Assert.assertFalse(message.getLikes().contains("Anna"));
+        Assert.assertEquals(1, message.getPoints());
+
+        // liking again moves the person to the end of the likes
+        askStore(store, new AddLike("Anna", message.getMessageId(), COMMUNICATION_ID));
+        Assert.assertEquals(Arrays.asList("Carl", "Bert", "Anna"), new ArrayList<>(message.getLikes()));
+        Assert.assertTrue(message.getDislikes().isEmpty());
+
+        // toString lists the names in alphabetical order
+        Assert.assertEquals("Anna: Likeable, liked by : Anna,Bert,Carl, disliked by : , points: 3", message.toString());
+    }
+
+
+    @Test
+    public void testReactionMasksAndCounters() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        UserMessage message = new UserMessage("Anna", "Reactions");
+        askStore(store, new UpdateMessageStore(message, COMMUNICATION_ID));
+        Assert.assertTrue(message.getReactions().isEmpty());
+        Assert.assertEquals(0, message.getReactionCount(Reaction.Emoji.SMILEY));
+
+        Assert.assertEquals(ReactionResponse.class, askStore(store, new AddReaction("Bert", message.getMessageId(),
+                COMMUNICATION_ID, Reaction.Emoji.SMILEY)).getClass());
+        Assert.assertEquals(ReactionResponse.class, askStore(store, new AddReaction("Bert", message.getMessageId(),
+                COMMUNICATION_ID, Reaction.Emoji.COOL)).getClass());
+        Assert.assertEquals(ReactionResponse.class, askStore(store, new AddReaction("Carl", message.getMessageId(),
+                COMMUNICATION_ID, Reaction.Emoji.SMILEY)).getClass());
+        UserMessage before = ((FoundMessages) askStore(store, new RetrieveFromStore("Anna", COMMUNICATION_ID))).messages.get(0);
+
+        // adding the same reaction again is rejected and does not count
+        Assert.assertEquals(OperationFailed.class, askStore(store, new AddReaction("Bert", message.getMessageId(),
+                COMMUNICATION_ID, Reaction.Emoji.SMILEY)).getClass());
+        Assert.assertEquals(ReactionResponse.class, askStore(store, new AddReaction("Carl", message.getMessageId(),
+                COMMUNICATION_ID, Reaction.Emoji.FROWN)).getClass());
+
+        // the mask of a person combines all emojis the person reacted with
+        Assert.assertEquals(2, message.getReactions().size());
+        Assert.assertEquals(Byte.valueOf((byte) (1 << Reaction.Emoji.SMILEY.ordinal() | 1 << Reaction.Emoji.COOL.ordinal())),
+                message.getReactions().get("Bert"));
+        Assert.assertEquals(Byte.valueOf((byte) (1 << Reaction.Emoji.SMILEY.ordinal() | 1 << Reaction.Emoji.FROWN.ordinal())),
+                message.getReactions().get("Carl"));
+        Assert.assertNull(message.getReactions().get("Dora"));
+        Assert.assertEquals(EnumSet.of(Reaction.Emoji.SMILEY, Reaction.Emoji.COOL), message.getReactions("Bert"));
+        Assert.assertTrue(message.getReactions("Dora").isEmpty());
+
+        Map<Reaction.Emoji, Integer> counts = message.getReactionCounts();
+        Assert.assertEquals(Reaction.Emoji.values().length, counts.size());
+        Assert.assertEquals(Integer.valueOf(2), counts.get(Reaction.Emoji.SMILEY));
+        Assert.assertEquals(Integer.valueOf(1), counts.get(Reaction.Emoji.COOL));
+        Assert.assertEquals(Integer.valueOf(1), counts.get(Reaction.Emoji.FROWN));
+        Assert.assertEquals(Integer.valueOf(0), counts.get(Reaction.Emoji.CRYING));
+
+        // a snapshot keeps the masks and counters it has seen
+        Assert.assertEquals(1 << Reaction.Emoji.SMILEY.ordinal(), (int) before.getReactions().get("Carl"));
+        Assert.assertEquals(0, before.getReactionCount(Reaction.Emoji.FROWN));
+        Assert.assertEquals(2, before.getReactionCount(Reaction.Emoji.SMILEY));
+    }
+
+
+    @Test
+    public void testMessageTableGrowsAndKeepsHoles() throws UnknownClientException, UnknownMessageException {
+        // the store of a shard starts at a large ID, which is still stored in the first slot
+        MessageStore store = new MessageStore(1L << 40);
+        system.spawn(store);
+        List<UserMessage> posted = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UserMessage message = new UserMessage("Anna", "Text " + i);
+            posted.add(message);
+            Assert.assertEquals(OperationAck.class,
+                    askStore(store, new UpdateMessageStore(message, COMMUNICATION_ID)).getClass());
+            Assert.assertEquals((1L << 40) + i, message.getMessageId());
+        }
+
+        // deleting every third message leaves holes, which lookups and scans skip
+        List<Long> remaining = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            long messageId = posted.get(i).getMessageId();
+            if (i % 3 == 0) {
+                Assert.assertEquals(OperationAck.class,
+                        askStore(store, new DeleteMessage("Anna", messageId, COMMUNICATION_ID)).getClass());
+            } else {
+                remaining.add(messageId);
+            }
+        }
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new AddLike("Bert", posted.get(3).getMessageId(), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new DeleteMessage("Anna", posted.get(3).getMessageId(), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new AddLike("Bert", (1L << 40) + 100, COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new AddLike("Bert", (1L << 40) - 1, COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(ReactionResponse.class,
+                askStore(store, new AddLike("Bert", posted.get(4).getMessageId(), COMMUNICATION_ID)).getClass());
+
+        List<Long> retrieved = new ArrayList<>();
+        long cursor = FoundMessages.FIRST_PAGE;
+        while (cursor != FoundMessages.NO_MORE_MESSAGES) {
+            FoundMessages page = (FoundMessages) askStore(store, new RetrieveFromStore("Anna", COMMUNICATION_ID, 7, cursor));
+            for (UserMessage message : page.messages)
+                retrieved.add(message.getMessageId());
+            cursor = page.nextCursor;
+        }
+        Assert.assertEquals(remaining, retrieved);
+
+        List<Long> searched = new ArrayList<>();
+        cursor = FoundMessages.FIRST_PAGE;
+        while (cursor != FoundMessages.NO_MORE_MESSAGES) {
+            FoundMessages page = (FoundMessages) askStore(store, new SearchInStore("text", COMMUNICATION_ID, 9, cursor));
+            for (UserMessage message : page.messages)
+                searched.add(message.getMessageId());
+            cursor = page.nextCursor;
+        }
+        Assert.assertEquals(remaining, searched);
+
+        // IDs of deleted messages are not handed out again
+        UserMessage next = new UserMessage("Anna", "Text 0");
+        askStore(store, new UpdateMessageStore(next, COMMUNICATION_ID));
+        Assert.assertEquals((1L << 40) + 100, next.getMessageId());
+    }
+
+
+    @Test
+    public void testBanThresholdAndRejectedReports() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        for (int i = 0; i < MessageStore.USER_BLOCKED_AT_COUNT; i++) {
+            Assert.assertEquals(OperationAck.class,
+                    askStore(store, new AddReport("Reporter" + i, COMMUNICATION_ID, "Spammer")).getClass());
+        }
+
+        // repeated reports are rejected and do not count towards the threshold
+        for (int i = 0; i < MessageStore.USER_BLOCKED_AT_COUNT; i++) {
+            Assert.assertEquals(OperationFailed.class,
+                    askStore(store, new AddReport("Reporter" + i, COMMUNICATION_ID, "Spammer")).getClass());
+        }
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Spammer", "Not yet"), COMMUNICATION_ID)).getClass());
+
+        // the report exceeding the threshold bans the user
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new AddReport("Reporter" + MessageStore.USER_BLOCKED_AT_COUNT, COMMUNICATION_ID, "Spammer")).getClass());
+        Assert.assertEquals(UserBanned.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Spammer", "Banned"), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(UserBanned.class,
+                askStore(store, new AddReport("Spammer", COMMUNICATION_ID, "Reporter0")).getClass());
+        // further reports of a banned user are still accepted, but do not ban the user again
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new AddReport("Late", COMMUNICATION_ID, "Spammer")).getClass());
+        Assert.assertEquals(OperationFailed.class,
+                askStore(store, new AddReport("Late", COMMUNICATION_ID, "Spammer")).getClass());
+
+        // reports of banned users are rejected and do not count
+        for (int i = 0; i <= MessageStore.USER_BLOCKED_AT_COUNT; i++) {
+            Assert.assertEquals(UserBanned.class,
+                    askStore(store, new AddReport("Spammer", COMMUNICATION_ID, "Victim")).getClass());
+        }
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Victim", "Still here"), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Reporter0", "Still here"), COMMUNICATION_ID)).getClass());
+    }
+
+
+    @Test
+    public void testSearchIndexFollowsChanges() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        UserMessage first = new UserMessage("Anna", "Hello World");
+        UserMessage second = new UserMessage("Bert", "Goodbye");
+        askStore(store, new UpdateMessageStore(first, COMMUNICATION_ID));
+        askStore(store, new UpdateMessageStore(second, COMMUNICATION_ID));
+        for (int i = 0; i < 20; i++) {
+            askStore(store, new UpdateMessageStore(new UserMessage("Carl", "Filler " + i), COMMUNICATION_ID));
+        }
+
+        // search texts are matched ignoring case, in the author name or in the message text
+        Assert.assertEquals(first.getMessageId(), search(store, "WORLD").get(0).getMessageId());
+        Assert.assertEquals(first.getMessageId(), search(store, "aNN").get(0).getMessageId());
+        Assert.assertEquals(1, search(store, "lo wo").size());
+        // but not across the boundary of author name and message text
+        Assert.assertTrue(search(store, "annahello").isEmpty());
+        Assert.assertTrue(search(store, "na he").isEmpty());
+
+        // search texts shorter than a trigram are checked against all messages
+        Assert.assertEquals(1, search(store, "W").size());
+        Assert.assertEquals(21, search(store, "lL").size());
+        Assert.assertEquals(22, search(store, "").size());
+
+        // edited messages are found by their new text only
+        askStore(store, new EditMessage(first.getMessageId(), "Anna", "Farewell", COMMUNICATION_ID));
+        Assert.assertTrue(search(store, "world").isEmpty());
+        Assert.assertEquals(first.getMessageId(), search(store, "WELL").get(0).getMessageId());
+        Assert.assertEquals(first.getMessageId(), search(store, "anna").get(0).getMessageId());
+        // editing back finds the message by its old text again
+        askStore(store, new EditMessage(first.getMessageId(), "Anna", "Hello World", COMMUNICATION_ID));
+        Assert.assertEquals(first.getMessageId(), search(store, "hello world").get(0).getMessageId());
+        Assert.assertTrue(search(store, "farewell").isEmpty());
+
+        // deleted messages are not found anymore
+        askStore(store, new DeleteMessage("Bert", second.getMessageId(), COMMUNICATION_ID));
+        Assert.assertTrue(search(store, "goodbye").isEmpty());
+        Assert.assertTrue(search(store, "bert").isEmpty());
+        Assert.assertEquals(1, search(store, "o").size());
+
+        // pages of a search using the index continue at the cursor
+        List<String> texts = new ArrayList<>();
+        long cursor = FoundMessages.FIRST_PAGE;
+        while (cursor != FoundMessages.NO_MORE_MESSAGES) {
+            FoundMessages page = (FoundMessages) askStore(store, new SearchInStore("LER 1", COMMUNICATION_ID, 4, cursor));
+            for (UserMessage message : page.messages)
+                texts.add(message.getMessage());
+            cursor = page.nextCursor;
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add("Filler 1");
+        for (int i = 10; i < 20; i++) {
+            expected.add("Filler " + i);
+        }
+        Assert.assertEquals(expected, texts);
+    }
+
+    private List<UserMessage> search(MessageStore store, String searchText)
+            throws UnknownClientException, UnknownMessageException {
+        return ((FoundMessages) askStore(store, new SearchInStore(searchText, COMMUNICATION_ID))).messages;
+    }
+
+
+    @Test
+    public void testSearchIndexMatchesFullScan() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        String[] words = {"alpha", "beta", "gamma", "delta", "alphabet"};
+        List<UserMessage> stored = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            int action = random.nextInt(4);
+            if (action > 0 || stored.isEmpty()) {
+                UserMessage message = new UserMessage("Author" + random.nextInt(5),
+                        words[random.nextInt(words.length)] + " " + i);
+                askStore(store, new UpdateMessageStore(message, COMMUNICATION_ID));
+                stored.add(message);
+            } else {
+                UserMessage message = stored.get(random.nextInt(stored.size()));
+                if (random.nextBoolean()) {
+                    askStore(store, new DeleteMessage(message.getAuthor(), message.getMessageId(), COMMUNICATION_ID));
+                    stored.remove(message);
+                } else {
+                    askStore(store, new EditMessage(message.getMessageId(), message.getAuthor(),
+                            words[random.nextInt(words.length)] + " " + i, COMMUNICATION_ID));
+                }
+            }
+        }
+
+        // the empty search text is too short for the index, so all messages are checked
+        List<UserMessage> all = search(store, "");
+        Assert.assertEquals(stored.size(), all.size());
+        for (String searchText : new String[]{"ALPHA", "pha", "bet", "ta 1", "author3", "or2 ", "mma 2", "xyz"}) {
+            List<Long> expected = new ArrayList<>();
+            for (UserMessage message : all) {
+                if (message.getAuthor().toLowerCase().contains(searchText.toLowerCase())
+                        || message.getMessage().toLowerCase().contains(searchText.toLowerCase()))
+                    expected.add(message.getMessageId());
+            }
+            List<Long> found = new ArrayList<>();
+            for (UserMessage message : search(store, searchText))
+                found.add(message.getMessageId());
+            Assert.assertEquals(searchText, expected, found);
+        }
+    }
+
+
+    @Test
+    public void testSearchAfterEditUsesNewText() throws UnknownClientException, UnknownMessageException {
+        UserMessage message = new UserMessage("Anna", "Old Text");
+        worker.tell(new Publish(message, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        // searching before the edit caches the lowercased text of the message
+        worker.tell(new SearchMessages("old", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        List<UserMessage> found = ((FoundMessages) client.receivedMessages.remove()).messages;
+        Assert.assertEquals(1, found.size());
+        UserMessage beforeEdit = found.get(0);
+
+        worker.tell(new Edit(message.getMessageId(), "Anna", "New Text", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+
+        for (String searchText : new String[]{"old", "OLD T", "o"}) {
+            worker.tell(new SearchMessages(searchText, COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            Assert.assertTrue(searchText, ((FoundMessages) client.receivedMessages.remove()).messages.isEmpty());
+        }
+        for (String searchText : new String[]{"new", "NEW T", "w", "anna"}) {
+            worker.tell(new SearchMessages(searchText, COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            found = ((FoundMessages) client.receivedMessages.remove()).messages;
+            Assert.assertEquals(searchText, 1, found.size());
+            Assert.assertEquals("New Text", found.get(0).getMessage());
+        }
+        // the message found before the edit keeps its text
+        Assert.assertEquals("Old Text", beforeEdit.getMessage());
+    }
+
+
+    @Test
+    public void testSearchIgnoresCaseIndependentOfLocale() throws UnknownClientException, UnknownMessageException {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            MessageStore store = new MessageStore();
+            system.spawn(store);
+            // packed Latin-1 text, long text and text outside of Latin-1 are lowercased the same way
+            askStore(store, new UpdateMessageStore(new UserMessage("IRMAK", "ISTANBUL"), COMMUNICATION_ID));
+            askStore(store, new UpdateMessageStore(new UserMessage("Anna", "VISITING ISTANBUL TODAY"), COMMUNICATION_ID));
+            askStore(store, new UpdateMessageStore(new UserMessage("Bert", "\u0130ZM\u0130R"), COMMUNICATION_ID));
+            askStore(store, new UpdateMessageStore(new UserMessage("Carl", "\u039F\u0394\u039F\u03A3"), COMMUNICATION_ID));
+
+            Assert.assertEquals(2, search(store, "ISTANBUL").size());
+            Assert.assertEquals(2, search(store, "istanbul").size());
+            Assert.assertEquals(1, search(store, "irmak").size());
+            Assert.assertEquals(2, search(store, "Is").size());
+            Assert.assertEquals(1, search(store, "\u0130ZM\u0130R").size());
+            Assert.assertEquals(1, search(store, "\u0130zm").size());
+            Assert.assertEquals(1, search(store, "\u039F\u0394\u039F\u03A3").size());
+            Assert.assertEquals(1, search(store, "\u03BF\u03B4\u03BF\u03C2").size());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+
+    /**
+     * Sends a message to a message store and returns the reply received by the test client.
+     */
+    private Message askStore(MessageStore store, MessageStoreMessage message)
+            throws UnknownClientException, UnknownMessageException {
+        message.storeClient = client;
+        store.tell(message);
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        return client.receivedMessages.remove();
+    }
+
+    @Test
+    public void testSearchCache() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        SearchCache cache = store.getSearchCache();
+        UserMessage applePie = new UserMessage("Anna", "apple pie");
+        UserMessage banana = new UserMessage("Berta", "banana");
+        UserMessage apple = new UserMessage("Carla", "Apple");
+        for (UserMessage message : Arrays.asList(applePie, banana, apple)) {
+            Assert.assertEquals(OperationAck.class,
+                    askStore(store, new UpdateMessageStore(message, COMMUNICATION_ID)).getClass());
+        }
+
+        Assert.assertEquals(2, ((FoundMessages) askStore(store, new SearchInStore("apple", COMMUNICATION_ID))).messages.size());
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(2, ((FoundMessages) askStore(store, new SearchInStore("APPLE", COMMUNICATION_ID))).messages.size());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, ((FoundMessages) askStore(store, new SearchInStore("ban", COMMUNICATION_ID))).messages.size());
+        Assert.assertEquals(2, cache.size());
+
+        // pages are served from the cached result
+        FoundMessages page = (FoundMessages) askStore(store, new SearchInStore("apple", COMMUNICATION_ID, 1,
+                FoundMessages.FIRST_PAGE));
+        Assert.assertEquals(applePie.getMessageId(), page.messages.get(0).getMessageId());
+        page = (FoundMessages) askStore(store, new SearchInStore("apple", COMMUNICATION_ID, 1, page.nextCursor));
+        Assert.assertEquals(apple.getMessageId(), page.messages.get(0).getMessageId());
+        Assert.assertEquals(FoundMessages.NO_MORE_MESSAGES, page.nextCursor);
+        Assert.assertEquals(3, cache.getHits());
+
+        // likes do not invalidate results, but are visible in them
+        askStore(store, new AddLike("Dora", applePie.getMessageId(), COMMUNICATION_ID));
+        FoundMessages found = (FoundMessages) askStore(store, new SearchInStore("apple", COMMUNICATION_ID));
+        Assert.assertEquals(1, found.messages.get(0).getPoints());
+        Assert.assertEquals(4, cache.getHits());
+        Assert.assertEquals(0, cache.getInvalidations());
+
+        // messages not matching a cached search text do not invalidate it
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new UpdateMessageStore(new UserMessage("Dora", "cherry"), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(0, cache.getInvalidations());
+
+        // editing invalidates the results matching the old and the new text
+        Assert.assertEquals(OperationAck.class, askStore(store,
+                new EditMessage(banana.getMessageId(), "Berta", "apple tart", COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(2, cache.getInvalidations());
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(3, ((FoundMessages) askStore(store, new SearchInStore("apple", COMMUNICATION_ID))).messages.size());
+        Assert.assertEquals(0, ((FoundMessages) askStore(store, new SearchInStore("ban", COMMUNICATION_ID))).messages.size());
+
+        // deleting invalidates the results matching the author
+        Assert.assertEquals(1, ((FoundMessages) askStore(store, new SearchInStore("carl", COMMUNICATION_ID))).messages.size());
+        Assert.assertEquals(OperationAck.class,
+                askStore(store, new DeleteMessage("Carla", apple.getMessageId(), COMMUNICATION_ID)).getClass());
+        Assert.assertEquals(4, cache.getInvalidations());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(0, ((FoundMessages) askStore(store, new SearchInStore("carl", COMMUNICATION_ID))).messages.size());
+        Assert.assertEquals(2, ((FoundMessages) askStore(store, new SearchInStore("apple", COMMUNICATION_ID))).messages.size());
+
+        // least recently used results are evicted
+        for (int i = 0; i < SearchCache.DEFAULT_MAX_RESULTS; i++) {
+            askStore(store, new SearchInStore("query " + i, COMMUNICATION_ID));
+        }
+        Assert.assertEquals(SearchCache.DEFAULT_MAX_RESULTS, cache.size());
+        Assert.assertEquals(3, cache.getEvictions());
+        Assert.assertEquals(cache.getHits() / (double) (cache.getHits() + cache.getMisses()), cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testPagedSearchCachesOnlyCompleteResults() throws UnknownClientException, UnknownMessageException {
+        MessageStore store = new MessageStore();
+        system.spawn(store);
+        SearchCache cache = store.getSearchCache();
+        for (int i = 0; i < 10; i++) {
+            askStore(store, new UpdateMessageStore(new UserMessage("Anna", "text " + i), COMMUNICATION_ID));
+        }
+
+        // a page which is full before all messages are checked is not cached
+        FoundMessages page = (FoundMessages) askStore(store, new SearchInStore("x", COMMUNICATION_ID, 3,
+                FoundMessages.FIRST_PAGE));
+        Assert.assertEquals(3, page.messages.size());
+        Assert.assertEquals(0, cache.size());
+        page = (FoundMessages) askStore(store, new SearchInStore("x", COMMUNICATION_ID, 3, page.nextCursor));
+        Assert.assertEquals(3, page.messages.size());
+        Assert.assertEquals("text 3", page.messages.get(0).getMessage());
+        Assert.assertEquals(0, cache.size());
+
+        // later pages are not cached either, even if they are the last page
+        page = (FoundMessages) askStore(store, new SearchInStore("ext", COMMUNICATION_ID, 20, page.nextCursor));
+        Assert.assertEquals(4, page.messages.size());
+        Assert.assertEquals(0, cache.size());
+
+        // a first page containing all matches is cached and serves later pages
+        page = (FoundMessages) askStore(store, new SearchInStore("ext", COMMUNICATION_ID, 20,
+                FoundMessages.FIRST_PAGE));
+        Assert.assertEquals(10, page.messages.size());
+        Assert.assertEquals(FoundMessages.NO_MORE_MESSAGES, page.nextCursor);
+        Assert.assertEquals(1, cache.size());
+        page = (FoundMessages) askStore(store, new SearchInStore("ext", COMMUNICATION_ID, 4,
+                page.messages.get(8).getMessageId()));
+        Assert.assertEquals(2, page.messages.size());
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testParallelTicksMatchSequentialTicks() throws UnknownClientException, UnknownMessageException {
+        Assert.assertFalse(new SimulatedActorSystem().isParallel());
+        Assert.assertFalse(new SimulatedActorSystem(1).isParallel());
+        List<String> sequentialTrace = runShardedScenario(new SimulatedActorSystem());
+        try (SimulatedActorSystem parallel = new SimulatedActorSystem(4)) {
+            Assert.assertTrue(parallel.isParallel());
+            Assert.assertEquals(sequentialTrace, runShardedScenario(parallel));
+        }
+    }
+
+    @Test
+    public void testParallelTickFailsFast() throws UnknownClientException, UnknownMessageException {
+        try (SimulatedActorSystem system = new SimulatedActorSystem(4)) {
+            List<TestClient> clients = new ArrayList<>();
+            for (int i = 0; i < SimulatedActorSystem.PARALLEL_THRESHOLD; i++) {
+                TestClient client = new TestClient();
+                system.spawn(client);
+                clients.add(client);
+            }
+            SimulatedActor failing = new SimulatedActor() {
+                @Override
+                public void receive(Message message) throws UnknownMessageException {
+                    throw new UnknownMessageException("Failing actor");
+                }
+            };
+            system.spawn(failing);
+            // actors spawning actors while being ticked are rejected, their IDs would depend on timing
+            SimulatedActor spawning = new SimulatedActor() {
+                @Override
+                public void receive(Message message) {
+                    system.spawn(new TestClient());
+                }
+            };
+            system.spawn(spawning);
+            for (TestClient client : clients) {
+                client.tell(new OperationAck((long) COMMUNICATION_ID));
+            }
+            failing.tell(new OperationAck((long) COMMUNICATION_ID));
+
+            int time = system.getCurrentTime();
+            try {
+                while (true) {
+                    time = system.getCurrentTime();
+                    system.runFor(1);
+                }
+            } catch (UnknownMessageException e) {
+                Assert.assertEquals("Failing actor", e.getMessage());
+            }
+            // like in sequential mode, the failed tick is not completed
+            Assert.assertEquals(time, system.getCurrentTime());
+
+            for (TestClient client : clients) {
+                client.tell(new OperationAck((long) COMMUNICATION_ID));
+            }
+            spawning.tell(new OperationAck((long) COMMUNICATION_ID));
+            int actors = system.getActors().size();
+            try {
+                system.runFor(10);
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertEquals(actors, system.getActors().size());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelStopClosesStores() throws UnknownClientException, UnknownMessageException, IOException {
+        Path directory = Files.createTempDirectory("messageboard");
+        String[] authors = {"Anna", "Berta", "Carla", "Dora"};
+        try (SimulatedActorSystem system = new SimulatedActorSystem(4)) {
+            Dispatcher dispatcher = new Dispatcher(system, 3, 2, 1);
+            dispatcher.setPersistenceDirectory(directory);
+            dispatcher.setSnapshotInterval(3);
+            system.spawn(dispatcher);
+            TestClient client = new TestClient();
+            system.spawn(client);
+            Assert.assertTrue(system.getActors().size() >= SimulatedActorSystem.PARALLEL_THRESHOLD);
+
+            dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+            while (client.receivedMessages.isEmpty())
+                system.runFor(1);
+            SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+            for (String author : authors) {
+                worker.tell(new Publish(new UserMessage(author, "Stopping"), COMMUNICATION_ID));
+            }
+            List<String> trace = new ArrayList<>();
+            collectReplies(system, client, authors.length, trace);
+            for (String entry : trace)
+                Assert.assertTrue(entry, entry.endsWith("OperationAck"));
+
+            // the dispatcher closes the stores, while the other actors are ticked in parallel
+            dispatcher.tell(new Stop());
+            while (system.getActors().contains(dispatcher))
+                system.runFor(1);
+            Assert.assertEquals(Collections.singletonList(client), system.getActors());
+        }
+
+        // the snapshots and logs written by the closed stores are complete
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        Dispatcher dispatcher = new Dispatcher(system, 3, 2, 1);
+        dispatcher.setPersistenceDirectory(directory);
+        system.spawn(dispatcher);
+        TestClient client = new TestClient();
+        system.spawn(client);
+        dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+        worker.tell(new SearchMessages("stopping", COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(authors.length, ((FoundMessages) client.receivedMessages.remove()).messages.size());
+
+        dispatcher.tell(new Stop());
+        while (system.getActors().contains(dispatcher))
+            system.runFor(1);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+
+    /**
+     * Runs requests against a system with enough actors to be ticked in parallel and records
+     * every reply together with the time it arrived at.
+     */
+    private List<String> runShardedScenario(SimulatedActorSystem system) throws UnknownClientException, UnknownMessageException {
+        Dispatcher dispatcher = new Dispatcher(system, 3, 2, 2);
+        system.spawn(dispatcher);
+        TestClient client = new TestClient();
+        system.spawn(client);
+        Assert.assertTrue(system.getActors().size() >= SimulatedActorSystem.PARALLEL_THRESHOLD);
+
+        List<String> trace = new ArrayList<>();
+        dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+        trace.add(system.getCurrentTime() + " InitAck");
+
+        String[] authors = {"Anna", "Berta", "Carla", "Dora"};
+        UserMessage[] published = new UserMessage[authors.length];
+        for (int i = 0; i < authors.length; i++) {
+            published[i] = new UserMessage(authors[i], "Parallel " + i);
+            worker.tell(new Publish(published[i], COMMUNICATION_ID));
+        }
+        collectReplies(system, client, authors.length, trace);
+        for (UserMessage message : published) {
+            worker.tell(new Like("Emma", COMMUNICATION_ID, message.getMessageId()));
+        }
+        worker.tell(new SearchMessages("parallel", COMMUNICATION_ID));
+        worker.tell(new RetrieveTopMessages(2, COMMUNICATION_ID));
+        collectReplies(system, client, authors.length + 2, trace);
+        for (SimulatedActor actor : system.getActors()) {
+            trace.add(actor.getClass().getSimpleName() + " " + actor.getId() + " " + actor.getTimeSinceSystemStart());
+        }
+        return trace;
+    }
+
+    private void collectReplies(SimulatedActorSystem system, TestClient client, int count, List<String> trace)
+            throws UnknownClientException, UnknownMessageException {
+        for (int replies = 0; replies < count; ) {
+            system.runFor(1);
+            while (!client.receivedMessages.isEmpty()) {
+                Message reply = client.receivedMessages.remove();
+                String entry = system.getCurrentTime() + " " + reply.getClass().getSimpleName();
+                if (reply instanceof ReactionResponse)
+                    entry += " " + ((ReactionResponse) reply).points;
+                if (reply instanceof FoundMessages)
+                    entry += " " + ((FoundMessages) reply).messages.size();
+                trace.add(entry);
+                replies++;
+            }
+        }
+    }
+
+    @Test
+    public void testIdleActorsAreSkipped() throws UnknownClientException, UnknownMessageException {
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        Dispatcher dispatcher = new Dispatcher(system, 8);
+        system.spawn(dispatcher);
+        TestClient client = new TestClient();
+        system.spawn(client);
+        int population = system.getActors().size();
+        Assert.assertEquals(population, system.getNumberOfActiveActors());
+
+        system.runFor(5);
+        Assert.assertEquals(0, system.getNumberOfActiveActors());
+        for (SimulatedActor actor : system.getActors()) {
+            Assert.assertEquals(system.getCurrentTime(), actor.getTimeSinceSystemStart());
+        }
+
+        // sending a message wakes up the receiver, its time has been kept up to date
+        dispatcher.tell(new InitCommunication(client, COMMUNICATION_ID));
+        Assert.assertEquals(1, system.getNumberOfActiveActors());
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        SimulatedActor worker = ((InitAck) client.receivedMessages.remove()).worker;
+        Assert.assertTrue(system.getNumberOfActiveActors() < population);
+        for (SimulatedActor actor : system.getActors()) {
+            Assert.assertEquals(system.getCurrentTime(), actor.getTimeSinceSystemStart());
+        }
+
+        // once the request has been completed, all actors fall asleep again
+        worker.tell(new Publish(new UserMessage("Anna", "Awake"), COMMUNICATION_ID));
+        while (client.receivedMessages.isEmpty())
+            system.runFor(1);
+        Assert.assertEquals(OperationAck.class, client.receivedMessages.remove().getClass());
+        system.runFor(5);
+        Assert.assertEquals(0, system.getNumberOfActiveActors());
+    }
+
+    @Test
+    public void testChannelDeliversAfterDelay() {
+        // the delay exceeds the number of slots of the channel's timer wheel
+        DeterministicChannel channel = new DeterministicChannel(40);
+        Message[] sent = new Message[5];
+        List<Message> delivered = new ArrayList<>();
+        int[] deliveredAt = new int[sent.length];
+        for (int t = 0; t < 60; t++) {
+            if (t < sent.length) {
+                sent[t] = new Stop();
+                channel.send(sent[t]);
+            }
+            for (Message message : channel.tick()) {
+                deliveredAt[delivered.size()] = t;
+                delivered.add(message);
+            }
+        }
+        Assert.assertEquals(Arrays.asList(sent), delivered);
+        for (int i = 0; i < sent.length; i++) {
+            Assert.assertEquals(i + 40, deliveredAt[i]);
+        }
+
+        // messages due in the same tick are delivered in the order they have been sent
+        DeterministicChannel direct = new DeterministicChannel(0);
+        Message first = new Stop();
+        Message second = new Stop();
+        direct.send(first);
+        direct.send(second);
+        Assert.assertEquals(Arrays.asList(first, second), direct.tick());
+        Assert.assertTrue(direct.tick().isEmpty());
+    }
+
+    @Test
+    public void testMessageBoxKeepsOrder() throws UnknownClientException, UnknownMessageException {
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        TestClient client = new TestClient();
+        system.spawn(client);
+
+        // more messages than the initial capacity of the message box, sent in two bursts
+        int count = 100;
+        for (int i = 0; i < count / 2; i++) {
+            client.tell(new OperationAck(i));
+        }
+        system.runFor(3);
+        for (int i = count / 2; i < count; i++) {
+            client.tell(new OperationAck(i));
+        }
+        while (client.receivedMessages.size() < count)
+            system.runFor(1);
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, (long) ((OperationAck) client.receivedMessages.remove()).communicationId);
+        }
+        system.runFor(1);
+        Assert.assertEquals(0, system.getNumberOfActiveActors());
+    }
+
+    @Test
+    public void testMessageLogPolicies() throws UnknownClientException, UnknownMessageException {
+        SimulatedActorSystem system = new SimulatedActorSystem();
+        system.setMessageLogPolicy(MessageLogPolicy.bounded(3));
+        TestClient bounded = new TestClient();
+        TestClient off = new TestClient();
+        off.setMessageLogPolicy(MessageLogPolicy.off());
+        TestClient sampled = new TestClient();
+        sampled.setMessageLogPolicy(MessageLogPolicy.sampled(4));
+        TestClient unbounded = new TestClient();
+        unbounded.setMessageLogPolicy(MessageLogPolicy.unbounded());
+        system.spawn(bounded);
+        system.spawn(off);
+        system.spawn(sampled);
+        system.spawn(unbounded);
+        Assert.assertNull(bounded.getMessageLogPolicy());
+
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sent.add(new OperationAck(i));
+        }
+        for (Message message : sent) {
+            bounded.tell(message);
+            off.tell(message);
+            sampled.tell(message);
+            unbounded.tell(message);
+        }
+        Assert.assertEquals(sent.subList(7, 10), bounded.getMessageLog());
+        Assert.assertTrue(off.getMessageLog().isEmpty());
+        Assert.assertEquals(Arrays.asList(sent.get(0), sent.get(4), sent.get(8)), sampled.getMessageLog());
+        Assert.assertEquals(sent, unbounded.getMessageLog());
+
+        // the policy only affects the log, all messages are still processed
+        while (off.receivedMessages.size() < sent.size())
+            system.runFor(1);
+        Assert.assertEquals(sent, new ArrayList<>(off.receivedMessages));
+
+        // changing the policy keeps the logged messages as far as possible
+        unbounded.setMessageLogPolicy(MessageLogPolicy.bounded(2));
+        Assert.assertEquals(sent.subList(8, 10), unbounded.getMessageLog());
+    }
 }
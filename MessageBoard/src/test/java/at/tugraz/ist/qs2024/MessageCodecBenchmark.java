@@ -0,0 +1,80 @@
+package at.tugraz.ist.qs2024;
+
+import at.tugraz.ist.qs2024.actorsystem.Message;
+import at.tugraz.ist.qs2024.messageboard.MessageCodec;
+import at.tugraz.ist.qs2024.messageboard.UserMessage;
+import at.tugraz.ist.qs2024.messageboard.clientmessages.FoundMessages;
+import at.tugraz.ist.qs2024.messageboard.clientmessages.Publish;
+import at.tugraz.ist.qs2024.messageboard.clientmessages.Reaction;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.AddLike;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.SearchInStore;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.StoreBatch;
+import at.tugraz.ist.qs2024.messageboard.messagestoremessages.UpdateMessageStore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the throughput of {@link MessageCodec} for typical messages. This is no test,
+ * run it as a program: the first argument is the number of iterations per message
+ * (default 1000000).
+ */
+public class MessageCodecBenchmark {
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        UserMessage message = new UserMessage("Anna", "A typical message posted to the message board");
+        message.setMessageId(4711);
+        for (int i = 0; i < 5; i++) {
+            message.getLikes().add("liker" + i);
+        }
+        message.getDislikes().add("Berta");
+        message.addReaction("Carla", Reaction.Emoji.SMILEY);
+
+        List<UserMessage> page = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            page.add(message);
+        }
+        List<Message> messages = Arrays.asList(
+                new AddLike("Berta", 4711, 1),
+                new SearchInStore("message", 1),
+                new Publish(message, 1),
+                new UpdateMessageStore(message, 1),
+                new StoreBatch(Arrays.asList(new AddLike("Berta", 4711, 1), new AddLike("Carla", 4711, 1)), 1),
+                new FoundMessages(page, 1));
+
+        MessageCodec codec = new MessageCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (Message m : messages) {
+            // warm up
+            run(codec, buffer, m, iterations / 10);
+            long start = System.nanoTime();
+            int bytes = run(codec, buffer, m, iterations);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-20s %5d bytes %8.0f ns/round trip %10.0f round trips/s %8.1f MB/s%n",
+                    m.getClass().getSimpleName(), bytes, (double) elapsed / iterations,
+                    iterations * 1e9 / elapsed, (double) bytes * iterations * 1e3 / elapsed);
+        }
+    }
+
+    /**
+     * Encodes and decodes a message repeatedly.
+     *
+     * @return the size of the encoded message in bytes
+     */
+    private static int run(MessageCodec codec, ByteBuffer buffer, Message message, int iterations) {
+        int bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            buffer.clear();
+            codec.encode(message, buffer);
+            bytes = buffer.position();
+            buffer.flip();
+            if (codec.decode(buffer).getClass() != message.getClass())
+                throw new AssertionError("Round trip failed for " + message.getClass());
+        }
+        return bytes;
+    }
+}